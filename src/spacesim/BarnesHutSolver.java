@@ -0,0 +1,306 @@
+/**
+ * Approximate gravity using a Barnes-Hut octree. Groups of bodies that are far
+ * enough away are treated as a single body at their center of mass, which
+ * brings the cost of a step down from O(N^2) to O(N log N). The tree is built
+ * on one thread, then walked for each row across the worker threads
+ */
+
+package spacesim;
+
+import java.util.Arrays;
+
+public class BarnesHutSolver implements ForceSolver, Parallel.RangeTask {
+    private static final int EMPTY = -1;
+    private static final int INTERNAL = -2;
+    private static final double MIN_HALF = 1e-6;
+
+    private double theta;
+
+    // Positions and masses of the bodies when the tree was built
+    private double[] px = new double[0], py = new double[0], pz = new double[0], pm = new double[0];
+
+    // The nodes of the tree, stored in flat arrays so they can be reused
+    private int nodeCount;
+    private int[] children = new int[0];
+    private int[] parent = new int[0];
+    private int[] leaf = new int[0];
+    private double[] cx = new double[0], cy = new double[0], cz = new double[0], half = new double[0];
+    private double[] mass = new double[0], mx = new double[0], my = new double[0], mz = new double[0];
+
+    // Each thread walks the tree with its own stack
+    private final ThreadLocal<int[][]> stacks = new ThreadLocal<int[][]>() {
+        @Override
+        protected int[][] initialValue() {
+            return new int[][] {new int[64]};
+        }
+    };
+
+    // The force evaluation being worked on
+    private ForceLaw forceLaw;
+    private double[] ax, ay, az;
+
+    /**
+     * Create a tree solver
+     * @param theta The opening angle. A cell is approximated by its center of
+     * mass when its width divided by its distance is less than this. 0 makes
+     * the solver exact
+     */
+    public BarnesHutSolver(double theta) {
+        this.theta = theta;
+    }
+
+    public double getTheta() {
+        return theta;
+    }
+
+    public void setTheta(double theta) {
+        this.theta = theta;
+    }
+
+    /**
+     * Rebuild the tree from the given positions, then walk it once for every
+     * body
+     */
+    @Override
+    public void accelerations(BodyStore bodies, ForceLaw forceLaw, double[] x, double[] y, double[] z,
+            double[] ax, double[] ay, double[] az) {
+        int n = bodies.size;
+        build(n, x, y, z, bodies.mass);
+        this.forceLaw = forceLaw;
+        this.ax = ax;
+        this.ay = ay;
+        this.az = az;
+        Parallel.forRange(n, this);
+    }
+
+    @Override
+    public void run(int from, int to) {
+        int[][] stack = stacks.get();
+        for (int i = from; i < to; i++) {
+            accelerate(i, stack);
+        }
+    }
+
+    /**
+     * Build the tree
+     * @param n Number of bodies
+     */
+    private void build(int n, double[] x, double[] y, double[] z, double[] m) {
+        ensureBodyCapacity(n);
+        System.arraycopy(x, 0, px, 0, n);
+        System.arraycopy(y, 0, py, 0, n);
+        System.arraycopy(z, 0, pz, 0, n);
+        System.arraycopy(m, 0, pm, 0, n);
+
+        nodeCount = 0;
+        if (n == 0) {
+            return;
+        }
+
+        // The root cell is a cube around every body
+        double minX = px[0], maxX = px[0], minY = py[0], maxY = py[0], minZ = pz[0], maxZ = pz[0];
+        for (int i = 1; i < n; i++) {
+            minX = Math.min(minX, px[i]);
+            maxX = Math.max(maxX, px[i]);
+            minY = Math.min(minY, py[i]);
+            maxY = Math.max(maxY, py[i]);
+            minZ = Math.min(minZ, pz[i]);
+            maxZ = Math.max(maxZ, pz[i]);
+        }
+        double h = Math.max(maxX-minX, Math.max(maxY-minY, maxZ-minZ))/2.0;
+        newNode(-1, (minX+maxX)/2.0, (minY+maxY)/2.0, (minZ+maxZ)/2.0, h*1.0001 + MIN_HALF);
+
+        for (int i = 0; i < n; i++) {
+            insert(i);
+        }
+
+        // Children are always created after their parents, so going backwards
+        // finishes every child before it is added to its parent
+        for (int node = nodeCount-1; node > 0; node--) {
+            int p = parent[node];
+            mass[p] += mass[node];
+            mx[p] += mx[node];
+            my[p] += my[node];
+            mz[p] += mz[node];
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            if (mass[node] != 0) {
+                mx[node] /= mass[node];
+                my[node] /= mass[node];
+                mz[node] /= mass[node];
+            }
+        }
+    }
+
+    /**
+     * Walk the tree to find the acceleration of one body, which does not act
+     * on itself
+     * @param self Row of the body
+     * @param stackHolder This thread's stack, which is replaced if it grows
+     */
+    private void accelerate(int self, int[][] stackHolder) {
+        double x = px[self], y = py[self], z = pz[self];
+        double ax = 0, ay = 0, az = 0;
+        int[] stack = stackHolder[0];
+
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int node = stack[--top];
+
+            if (leaf[node] == INTERNAL) {
+                double dx = mx[node] - x;
+                double dy = my[node] - y;
+                double dz = mz[node] - z;
+                double dsq = dx*dx + dy*dy + dz*dz;
+                double width = 2*half[node];
+
+                // Open the cell if it is too close, or if it holds the body
+                // itself, which must not pull on itself
+                if (width*width >= theta*theta*dsq || contains(node, x, y, z)) {
+                    if (top + 8 > stack.length) {
+                        int[] newStack = new int[stack.length*2];
+                        System.arraycopy(stack, 0, newStack, 0, top);
+                        stack = newStack;
+                        stackHolder[0] = stack;
+                    }
+                    for (int o = 0; o < 8; o++) {
+                        int child = children[8*node+o];
+                        if (child != EMPTY) {
+                            stack[top++] = child;
+                        }
+                    }
+                    continue;
+                }
+            } else if (leaf[node] == self) {
+                continue;
+            }
+
+            double dx = mx[node] - x;
+            double dy = my[node] - y;
+            double dz = mz[node] - z;
+            double dsq = dx*dx + dy*dy + dz*dz;
+            if (dsq > 0.0000001) {
+                double f = SimulationEngine.GRAV_CONST*mass[node]*forceLaw.scale(dsq);
+                ax += f*dx;
+                ay += f*dy;
+                az += f*dz;
+            }
+        }
+        this.ax[self] = ax;
+        this.ay[self] = ay;
+        this.az[self] = az;
+    }
+
+    /**
+     * Put a body into the tree, splitting leaves as needed
+     * @param i Index of the body
+     */
+    private void insert(int i) {
+        int node = 0;
+        while (true) {
+            if (leaf[node] == EMPTY) {
+                setLeaf(node, i);
+                return;
+            } else if (leaf[node] == INTERNAL) {
+                int o = octant(node, px[i], py[i], pz[i]);
+                int child = children[8*node+o];
+                if (child == EMPTY) {
+                    child = newChild(node, o);
+                    setLeaf(child, i);
+                    return;
+                }
+                node = child;
+            } else if (half[node] < MIN_HALF) {
+                // Bodies on top of each other share a leaf
+                mass[node] += pm[i];
+                mx[node] += pm[i]*px[i];
+                my[node] += pm[i]*py[i];
+                mz[node] += pm[i]*pz[i];
+                return;
+            } else {
+                // Split the leaf and push its body down a level
+                int old = leaf[node];
+                leaf[node] = INTERNAL;
+                mass[node] = 0;
+                mx[node] = 0;
+                my[node] = 0;
+                mz[node] = 0;
+                int child = newChild(node, octant(node, px[old], py[old], pz[old]));
+                setLeaf(child, old);
+            }
+        }
+    }
+
+    private void setLeaf(int node, int i) {
+        leaf[node] = i;
+        mass[node] = pm[i];
+        mx[node] = pm[i]*px[i];
+        my[node] = pm[i]*py[i];
+        mz[node] = pm[i]*pz[i];
+    }
+
+    private int octant(int node, double x, double y, double z) {
+        return (x >= cx[node] ? 1 : 0) | (y >= cy[node] ? 2 : 0) | (z >= cz[node] ? 4 : 0);
+    }
+
+    private boolean contains(int node, double x, double y, double z) {
+        double h = half[node];
+        return Math.abs(x - cx[node]) <= h && Math.abs(y - cy[node]) <= h && Math.abs(z - cz[node]) <= h;
+    }
+
+    private int newChild(int node, int o) {
+        double h = half[node]/2.0;
+        int child = newNode(node,
+                cx[node] + ((o & 1) != 0 ? h : -h),
+                cy[node] + ((o & 2) != 0 ? h : -h),
+                cz[node] + ((o & 4) != 0 ? h : -h), h);
+        children[8*node+o] = child;
+        return child;
+    }
+
+    private int newNode(int p, double x, double y, double z, double h) {
+        if (nodeCount == leaf.length) {
+            growNodes(Math.max(64, 2*leaf.length));
+        }
+        int node = nodeCount++;
+        for (int o = 0; o < 8; o++) {
+            children[8*node+o] = EMPTY;
+        }
+        parent[node] = p;
+        leaf[node] = EMPTY;
+        cx[node] = x;
+        cy[node] = y;
+        cz[node] = z;
+        half[node] = h;
+        mass[node] = 0;
+        mx[node] = 0;
+        my[node] = 0;
+        mz[node] = 0;
+        return node;
+    }
+
+    private void growNodes(int capacity) {
+        children = Arrays.copyOf(children, 8*capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        leaf = Arrays.copyOf(leaf, capacity);
+        cx = Arrays.copyOf(cx, capacity);
+        cy = Arrays.copyOf(cy, capacity);
+        cz = Arrays.copyOf(cz, capacity);
+        half = Arrays.copyOf(half, capacity);
+        mass = Arrays.copyOf(mass, capacity);
+        mx = Arrays.copyOf(mx, capacity);
+        my = Arrays.copyOf(my, capacity);
+        mz = Arrays.copyOf(mz, capacity);
+    }
+
+    private void ensureBodyCapacity(int capacity) {
+        if (capacity > px.length) {
+            capacity = Math.max(capacity, 2*px.length);
+            px = Arrays.copyOf(px, capacity);
+            py = Arrays.copyOf(py, capacity);
+            pz = Arrays.copyOf(pz, capacity);
+            pm = Arrays.copyOf(pm, capacity);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Runs the simulation forward as fast as it will go, to a given simulated
+ * time or for a given number of steps. The steps are the engine's usual ones,
+ * with collisions, bodies leaving the cube and paths all the same, but nothing
+ * is drawn or published while it runs. It can be cancelled from another
+ * thread, which leaves the simulation at the end of the last whole step.
+ */
+
+package spacesim;
+
+import java.util.ArrayList;
+
+public class BatchRun {
+    // How often progress is reported, in nanoseconds
+    private static final long REPORT_EVERY = 100000000L;
+
+    /**
+     * Told how the run is going, on the thread doing the run
+     */
+    public interface Progress {
+        /**
+         * @param fraction How much of the run is done, from 0 to 1
+         * @param steps How many steps have been taken so far
+         * @param stepsPerSecond How fast the steps are going
+         */
+        public void progress(double fraction, long steps, double stepsPerSecond);
+    }
+
+    private final SimulationEngine engine;
+    private final double targetTime;
+    private final long targetSteps;
+    private volatile boolean cancelled = false;
+
+    private BatchRun(SimulationEngine engine, double targetTime, long targetSteps) {
+        this.engine = engine;
+        this.targetTime = targetTime;
+        this.targetSteps = targetSteps;
+    }
+
+    /**
+     * @param engine The simulation to run
+     * @param time The simulated time to stop at. The run stops at the step
+     * closest to it. Must be a finite time after the engine's current one
+     */
+    public static BatchRun toTime(SimulationEngine engine, double time) {
+        if (Double.isNaN(time) || Double.isInfinite(time) || time <= engine.getTime()) {
+            throw new IllegalArgumentException("Time must be after "+engine.getTime()+": "+time);
+        }
+        return new BatchRun(engine, time, -1);
+    }
+
+    /**
+     * @param engine The simulation to run
+     * @param steps How many steps to take
+     */
+    public static BatchRun forSteps(SimulationEngine engine, long steps) {
+        if (steps < 0) {
+            throw new IllegalArgumentException("Steps must not be negative: "+steps);
+        }
+        return new BatchRun(engine, Double.NaN, steps);
+    }
+
+    /**
+     * Stop the run after the step it is on
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Take the steps. Returns when they are all done or the run is cancelled
+     * @param progress Told how the run is going every so often, and once at
+     * the end. Can be null
+     * @return The bodies that were removed during the run
+     */
+    public ArrayList<Body> run(Progress progress) {
+        ArrayList<Body> removed = new ArrayList<>();
+        double startTime = engine.getTime();
+        long start = System.nanoTime(), lastReport = start;
+        long steps = 0;
+
+        while (!cancelled && !isDone(steps)) {
+            removed.addAll(engine.step());
+            steps++;
+
+            long now = System.nanoTime();
+            if (progress != null && now - lastReport >= REPORT_EVERY) {
+                progress.progress(fraction(steps, startTime), steps, steps*1e9/(now - start));
+                lastReport = now;
+            }
+        }
+
+        if (progress != null) {
+            long now = System.nanoTime();
+            progress.progress(fraction(steps, startTime), steps, now > start ? steps*1e9/(now - start) : 0);
+        }
+        return removed;
+    }
+
+    private boolean isDone(long steps) {
+        if (targetSteps >= 0) {
+            return steps >= targetSteps;
+        }
+        // Stop at whichever step lands closest to the target
+        return engine.getTime() + engine.getDt()/2 >= targetTime;
+    }
+
+    private double fraction(long steps, double startTime) {
+        if (targetSteps >= 0) {
+            return targetSteps == 0 ? 1 : (double) steps/targetSteps;
+        }
+        double total = targetTime - startTime;
+        return total <= 0 ? 1 : Math.min(1, (engine.getTime() - startTime)/total);
+    }
+}
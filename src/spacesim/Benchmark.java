@@ -0,0 +1,180 @@
+/**
+ * Times the physics and the drawing without the GUI, for comparing the
+ * different ways of calculating gravity and seeing how long frames take. Run with
+ * java -cp SpaceSim.jar spacesim.Benchmark [bodies] [steps]
+ */
+
+package spacesim;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+public class Benchmark {
+    private static final long SEED = 1;
+    
+    public static void main(String args[]) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        
+        System.out.println(n+" bodies, "+steps+" leapfrog steps each");
+        threadScaling(n, steps);
+        symmetricPairs(n, steps);
+        forceLaws(n, steps);
+        frameTimes(n);
+    }
+    
+    /**
+     * How long drawing a frame takes, with trails drawn as dots and as lines,
+     * drawn with Java2D and with the TileRasterizer. Frames are drawn into an
+     * image, so this needs no screen
+     */
+    private static void frameTimes(int n) {
+        SimulationEngine engine = new SimulationEngine();
+        engine.addRandomBodies(n, SEED);
+        engine.setIntegrator(new LeapfrogIntegrator());
+        engine.setForceSolver(new BarnesHutSolver(0.8));
+        Renderer renderer = new Renderer(Names.generateColors(), 1.001);
+        renderer.setView(1/0.3, 0, 0);
+        BufferedImage image = new BufferedImage(1200, 800, BufferedImage.TYPE_INT_RGB);
+        Graphics g = image.getGraphics();
+        
+        System.out.println();
+        System.out.println("Paths  Drawn with  Median frame ms  90th percentile ms");
+        int[] modes = {SimulationEngine.PATHS_DOTS, SimulationEngine.PATHS_LINES};
+        String[] names = {"Dots", "Lines"};
+        for (int m = 0; m < modes.length; m++) {
+            // Fill up the trails
+            engine.setPathMode(modes[m]);
+            for (Body b : engine.getBodies()) {
+                b.trail.clear();
+            }
+            for (int i = 0; i < 4*Body.TRAIL_LENGTH; i++) {
+                engine.step();
+            }
+            engine.publish();
+            WorldSnapshot world = engine.getSnapshot();
+            
+            for (boolean tiled : new boolean[] {false, true}) {
+                renderer.setTiled(tiled);
+                long[] times = new long[40];
+                for (int i = 0; i < 20; i++) {
+                    renderer.render(g, world, image.getWidth(), image.getHeight(), modes[m]);
+                }
+                for (int i = 0; i < times.length; i++) {
+                    long start = System.nanoTime();
+                    renderer.render(g, world, image.getWidth(), image.getHeight(), modes[m]);
+                    times[i] = System.nanoTime() - start;
+                }
+                Arrays.sort(times);
+                System.out.printf("%-5s  %-10s  %15.2f  %18.2f%n", names[m], tiled ? "Tiles" : "Java2D",
+                        times[times.length/2]/1e6, times[times.length*9/10]/1e6);
+            }
+        }
+        g.dispose();
+    }
+    
+    /**
+     * Force evaluations per second of each force law's kernel against working
+     * out the same law with Math.pow, on one thread
+     */
+    private static void forceLaws(int n, int steps) {
+        int oldThreads = Parallel.getThreads();
+        Parallel.setThreads(1);
+        
+        System.out.println();
+        System.out.println("Law    Kernel evals/s  Math.pow evals/s  Speed-up");
+        for (ForceLaw law : ForceLaw.values()) {
+            double kernel = evaluationsPerSecond(law, n, steps);
+            double pow = evaluationsPerSecond(ForceLaw.pow(law.getExponent()), n, steps);
+            System.out.printf("%-5s  %14.2f  %16.2f  %8.2f%n", law, kernel, pow, kernel/pow);
+        }
+        Parallel.setThreads(oldThreads);
+    }
+    
+    /**
+     * @return How many direct force evaluations per second there are with the
+     * given law, after warming up
+     */
+    private static double evaluationsPerSecond(ForceLaw law, int n, int evaluations) {
+        BodyStore bodies = SimulationEngine.randomBodies(n, SEED);
+        ForceSolver solver = new DirectSolver();
+        double[] ax = new double[n], ay = new double[n], az = new double[n];
+        for (int i = 0; i < Math.max(2, evaluations/4); i++) {
+            solver.accelerations(bodies, law, bodies.x, bodies.y, bodies.z, ax, ay, az);
+        }
+        
+        long start = System.nanoTime();
+        for (int i = 0; i < evaluations; i++) {
+            solver.accelerations(bodies, law, bodies.x, bodies.y, bodies.z, ax, ay, az);
+        }
+        return evaluations/((System.nanoTime() - start)/1e9);
+    }
+    
+    /**
+     * Steps per second of the direct solver against the symmetric one, which
+     * does half as many pairs, on one thread and on all of them
+     */
+    private static void symmetricPairs(int n, int steps) {
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        int oldThreads = Parallel.getThreads();
+        
+        System.out.println();
+        System.out.println("Threads  Direct steps/s  Symmetric steps/s  Speed-up");
+        for (int threads = 1; ; threads = maxThreads) {
+            Parallel.setThreads(threads);
+            double direct = stepsPerSecond(new DirectSolver(), n, steps);
+            double symmetric = stepsPerSecond(new SymmetricSolver(), n, steps);
+            System.out.printf("%7d  %14.2f  %17.2f  %8.2f%n", threads, direct, symmetric, symmetric/direct);
+            if (threads == maxThreads) {
+                break;
+            }
+        }
+        Parallel.setThreads(oldThreads);
+    }
+    
+    /**
+     * Steps per second of the direct and tree solvers as the number of threads
+     * goes up
+     */
+    private static void threadScaling(int n, int steps) {
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        int oldThreads = Parallel.getThreads();
+        
+        System.out.println();
+        System.out.println("Threads  Direct steps/s  Speed-up  Tree steps/s  Speed-up");
+        double directBase = 0, treeBase = 0;
+        for (int threads = 1; ; threads = Math.min(2*threads, maxThreads)) {
+            Parallel.setThreads(threads);
+            double direct = stepsPerSecond(new DirectSolver(), n, steps);
+            double tree = stepsPerSecond(new BarnesHutSolver(0.5), n, steps);
+            if (threads == 1) {
+                directBase = direct;
+                treeBase = tree;
+            }
+            System.out.printf("%7d  %14.2f  %8.2f  %12.2f  %8.2f%n", threads,
+                    direct, direct/directBase, tree, tree/treeBase);
+            if (threads == maxThreads) {
+                break;
+            }
+        }
+        Parallel.setThreads(oldThreads);
+    }
+    
+    /**
+     * @return How many steps per second the solver manages, after warming up
+     */
+    private static double stepsPerSecond(ForceSolver solver, int n, int steps) {
+        BodyStore bodies = SimulationEngine.randomBodies(n, SEED);
+        Integrator integrator = new LeapfrogIntegrator();
+        for (int i = 0; i < Math.max(2, steps/4); i++) {
+            integrator.step(bodies, solver, ForceLaw.INVERSE_SQUARE, 0.5);
+        }
+        
+        long start = System.nanoTime();
+        for (int i = 0; i < steps; i++) {
+            integrator.step(bodies, solver, ForceLaw.INVERSE_SQUARE, 0.5);
+        }
+        return steps/((System.nanoTime() - start)/1e9);
+    }
+}
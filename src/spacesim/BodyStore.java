@@ -0,0 +1,242 @@
+/**
+ * Holds the physical state of every body in one set of primitive arrays, one
+ * array per quantity with one row per body. The force and integration loops
+ * read straight through these arrays, while each Body is just a view of its
+ * row for the GUI.
+ *
+ * Rows are kept packed: removing a body moves the last row into its place.
+ * Every body also gets an id when it is added, which never changes.
+ */
+
+package spacesim;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+public class BodyStore implements Iterable<Body> {
+    public int size;
+
+    // The current state of each row
+    public double[] x, y, z, vx, vy, vz, mass, radius, density;
+    public boolean[] moveable;
+
+    // Goes up whenever a body is added or removed
+    public int modCount = 0;
+
+    // Goes up whenever any position, velocity or mass changes, whether by a
+    // step of an integrator or from outside, so that anything worked out from
+    // them can tell when it is out of date
+    public int epoch = 0;
+
+    public int[] ids;
+    public Body[] bodies;
+    private int[] rowOfId = new int[0];
+    private int nextId = 0;
+
+    public BodyStore() {
+        this(16);
+    }
+
+    public BodyStore(int capacity) {
+        capacity = Math.max(capacity, 1);
+        x = new double[capacity];
+        y = new double[capacity];
+        z = new double[capacity];
+        vx = new double[capacity];
+        vy = new double[capacity];
+        vz = new double[capacity];
+        mass = new double[capacity];
+        radius = new double[capacity];
+        density = new double[capacity];
+        moveable = new boolean[capacity];
+        ids = new int[capacity];
+        bodies = new Body[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param row Row of the body
+     * @return The body stored in that row
+     */
+    public Body get(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row: "+row+", Size: "+size);
+        }
+        return bodies[row];
+    }
+
+    /**
+     * @param id Id of the body
+     * @return The row holding that body, or -1 if it is not in the store
+     */
+    public int rowOf(int id) {
+        return id < rowOfId.length ? rowOfId[id] : -1;
+    }
+
+    /**
+     * Move a body into this store. Its values are copied into a new row, and
+     * the body becomes a view of that row
+     * @param b The body, which must not already be in this store
+     */
+    public synchronized void add(Body b) {
+        if (size == x.length) {
+            grow(2*size);
+        }
+
+        int row = size;
+        BodyStore from = b.store;
+        int fromRow = b.row;
+        x[row] = from.x[fromRow];
+        y[row] = from.y[fromRow];
+        z[row] = from.z[fromRow];
+        vx[row] = from.vx[fromRow];
+        vy[row] = from.vy[fromRow];
+        vz[row] = from.vz[fromRow];
+        mass[row] = from.mass[fromRow];
+        radius[row] = from.radius[fromRow];
+        density[row] = from.density[fromRow];
+        moveable[row] = from.moveable[fromRow];
+
+        int id = nextId++;
+        if (id >= rowOfId.length) {
+            int oldLength = rowOfId.length;
+            rowOfId = Arrays.copyOf(rowOfId, Math.max(16, 2*oldLength));
+            Arrays.fill(rowOfId, oldLength, rowOfId.length, -1);
+        }
+        rowOfId[id] = row;
+        ids[row] = id;
+        bodies[row] = b;
+        size++;
+        modCount++;
+        epoch++;
+
+        b.store = this;
+        b.row = row;
+        b.id = id;
+    }
+
+    /**
+     * Take a body out of this store. The body keeps its values in a store of
+     * its own, so it can still be read and added again later
+     * @param b The body to remove
+     * @return Whether the body was in this store
+     */
+    public synchronized boolean remove(Body b) {
+        if (b.store != this) {
+            return false;
+        }
+
+        int row = b.row;
+        BodyStore detached = new BodyStore(1);
+        detached.set(0, x[row], y[row], z[row], vx[row], vy[row], vz[row],
+                mass[row], radius[row], density[row], moveable[row]);
+        detached.bodies[0] = b;
+        detached.size = 1;
+
+        int last = size-1;
+        if (row != last) {
+            x[row] = x[last];
+            y[row] = y[last];
+            z[row] = z[last];
+            vx[row] = vx[last];
+            vy[row] = vy[last];
+            vz[row] = vz[last];
+            mass[row] = mass[last];
+            radius[row] = radius[last];
+            density[row] = density[last];
+            moveable[row] = moveable[last];
+            ids[row] = ids[last];
+            bodies[row] = bodies[last];
+            bodies[row].row = row;
+            rowOfId[ids[row]] = row;
+        }
+        rowOfId[b.id] = -1;
+        bodies[last] = null;
+        size--;
+        modCount++;
+        epoch++;
+
+        b.store = detached;
+        b.row = 0;
+        return true;
+    }
+
+    /**
+     * Set every value of a row at once
+     */
+    public void set(int row, double x, double y, double z, double vx, double vy, double vz,
+            double mass, double radius, double density, boolean moveable) {
+        this.x[row] = x;
+        this.y[row] = y;
+        this.z[row] = z;
+        this.vx[row] = vx;
+        this.vy[row] = vy;
+        this.vz[row] = vz;
+        this.mass[row] = mass;
+        this.radius[row] = radius;
+        this.density[row] = density;
+        this.moveable[row] = moveable;
+        epoch++;
+    }
+
+    private void grow(int capacity) {
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        z = Arrays.copyOf(z, capacity);
+        vx = Arrays.copyOf(vx, capacity);
+        vy = Arrays.copyOf(vy, capacity);
+        vz = Arrays.copyOf(vz, capacity);
+        mass = Arrays.copyOf(mass, capacity);
+        radius = Arrays.copyOf(radius, capacity);
+        density = Arrays.copyOf(density, capacity);
+        moveable = Arrays.copyOf(moveable, capacity);
+        ids = Arrays.copyOf(ids, capacity);
+        bodies = Arrays.copyOf(bodies, capacity);
+    }
+
+    /**
+     * Goes through the bodies in order of row. Removing a body moves the last
+     * one into its row, which a loop part way through would skip, so adding or
+     * removing a body during the loop throws ConcurrentModificationException.
+     * The physics adds and removes bodies while holding the lock on this
+     * store, so any other thread must hold it for the whole loop
+     */
+    @Override
+    public Iterator<Body> iterator() {
+        return new Iterator<Body>() {
+            private final int expectedModCount = modCount;
+            private int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                checkForRemovals();
+                return i < size;
+            }
+
+            @Override
+            public Body next() {
+                checkForRemovals();
+                if (i >= size) {
+                    throw new NoSuchElementException();
+                }
+                return bodies[i++];
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            private void checkForRemovals() {
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * Finds bodies that touch and merges them, and finds bodies that have left the
+ * simulation cube. Rather than testing every pair, the bodies are hashed into
+ * a grid of cubic cells a few typical radii across, and a body is only tested
+ * against the bodies in its own and the neighbouring cells. Bodies too big for
+ * the grid are tested against everyone, which is cheap since there are only
+ * ever a few suns.
+ *
+ * Pairs are visited in the same order as testing every body against every
+ * other would visit them, so the merges come out the same.
+ */
+
+package spacesim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+public class Collisions {
+    // How many mean radii across a cell is
+    private static final double CELL_RADII = 4;
+    private static final int[] HASH = {73856093, 19349663, 83492791};
+
+    private double cellSize;
+
+    // Cell of each row, and the rows hashed to each slot as linked lists
+    private int[] cellX = new int[0], cellY = new int[0], cellZ = new int[0];
+    private int[] next = new int[0];
+    private int[] head = new int[0];
+    private int mask;
+
+    // Rows too big to go in the grid
+    private boolean[] large = new boolean[0];
+    private int[] largeRows = new int[0];
+    private int largeCount;
+
+    private int[] candidates = new int[16];
+    private final BitSet removedIds = new BitSet();
+    private final ArrayList<Body> toBeRemoved = new ArrayList<>();
+
+    /**
+     * Merge every pair of touching bodies into the heavier one, conserving
+     * momentum and weighting the density by mass. The lighter one is to be
+     * removed, as is any body outside the cube
+     * @param bodies Every body in the simulation
+     * @param cubeL Half the width of the cube bodies must stay inside. It is
+     * half as tall as it is wide
+     * @return The bodies to remove, in the order they were found. The list is
+     * reused by the next call
+     */
+    public ArrayList<Body> collide(BodyStore bodies, double cubeL) {
+        toBeRemoved.clear();
+        removedIds.clear();
+        int n = bodies.size;
+        build(bodies);
+
+        for (int i = 0; i < n; i++) {
+            Body b1 = bodies.bodies[i];
+            int count = findCandidates(bodies, i);
+            for (int k = 0; k < count; k++) {
+                Body b2 = bodies.bodies[candidates[k]];
+                if (b1 != b2 && areTouching(b1, b2)) {
+                    Body big = b1.getMass() > b2.getMass() ? b1 : b2;
+                    Body small = b1 == big ? b2 : b1;
+
+                    if (removedIds.get(small.getId())) {
+                        continue;
+                    } else {
+                        removedIds.set(small.getId());
+                        toBeRemoved.add(small);
+                    }
+
+                    double bigMass = big.getMass(), smallMass = small.getMass();
+                    double newvx = (big.getVx()*bigMass+small.getVx()*smallMass)/(bigMass+smallMass);
+                    double newvy = (big.getVy()*bigMass+small.getVy()*smallMass)/(bigMass+smallMass);
+                    double newvz = (big.getVz()*bigMass+small.getVz()*smallMass)/(bigMass+smallMass);
+                    double newden = (big.getDensity()*bigMass+small.getDensity()*smallMass)/(bigMass+smallMass);
+                    big.setMass(bigMass + smallMass);
+                    big.setDensity(newden);
+                    big.setRadiusFromMass();
+                    big.setVx(newvx);
+                    big.setVy(newvy);
+                    big.setVz(newvz);
+
+                    // A body that has outgrown the grid can now touch bodies
+                    // more than a cell away
+                    if (!large[big.row] && 2*big.getR() > cellSize) {
+                        addLarge(big.row);
+                    }
+                }
+            }
+
+            // Check for out of bounds
+            if (!removedIds.get(b1.getId())) {
+                if (Math.abs(b1.getX()) > cubeL || Math.abs(b1.getY()) > cubeL
+                        || Math.abs(b1.getZ()) > cubeL/2) {
+                    removedIds.set(b1.getId());
+                    toBeRemoved.add(b1);
+                }
+            }
+        }
+        return toBeRemoved;
+    }
+
+    private static boolean areTouching(Body b1, Body b2) {
+        double dx = b2.getX() - b1.getX();
+        double dy = b2.getY() - b1.getY();
+        double dz = b2.getZ() - b1.getZ();
+        double r = b1.getR() + b2.getR();
+
+        return dx*dx+dy*dy+dz*dz <= r*r;
+    }
+
+    /**
+     * Hash every body into the grid
+     */
+    private void build(BodyStore bodies) {
+        int n = bodies.size;
+        ensureCapacity(n);
+        double[] x = bodies.x, y = bodies.y, z = bodies.z, radius = bodies.radius;
+
+        // Anything that touches is then within one cell of each other, unless
+        // one of them is large
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += radius[i];
+        }
+        cellSize = n > 0 && sum > 0 ? CELL_RADII*sum/n : 1;
+
+        Arrays.fill(head, -1);
+        largeCount = 0;
+        for (int i = 0; i < n; i++) {
+            large[i] = false;
+            if (2*radius[i] > cellSize) {
+                addLarge(i);
+            }
+            cellX[i] = (int) Math.floor(x[i]/cellSize);
+            cellY[i] = (int) Math.floor(y[i]/cellSize);
+            cellZ[i] = (int) Math.floor(z[i]/cellSize);
+            int slot = slot(cellX[i], cellY[i], cellZ[i]);
+            next[i] = head[slot];
+            head[slot] = i;
+        }
+    }
+
+    /**
+     * Put the rows that might touch a row into candidates, sorted by row
+     * @param i The row
+     * @return How many candidates there are
+     */
+    private int findCandidates(BodyStore bodies, int i) {
+        int count = 0;
+        if (large[i]) {
+            for (int j = 0; j < bodies.size; j++) {
+                count = addCandidate(count, j);
+            }
+            return count;
+        }
+
+        for (int ix = cellX[i]-1; ix <= cellX[i]+1; ix++) {
+            for (int iy = cellY[i]-1; iy <= cellY[i]+1; iy++) {
+                for (int iz = cellZ[i]-1; iz <= cellZ[i]+1; iz++) {
+                    // Different cells can share a slot, so check the cell too
+                    for (int j = head[slot(ix, iy, iz)]; j != -1; j = next[j]) {
+                        if (cellX[j] == ix && cellY[j] == iy && cellZ[j] == iz && !large[j]) {
+                            count = addCandidate(count, j);
+                        }
+                    }
+                }
+            }
+        }
+        for (int k = 0; k < largeCount; k++) {
+            count = addCandidate(count, largeRows[k]);
+        }
+        Arrays.sort(candidates, 0, count);
+        return count;
+    }
+
+    private int addCandidate(int count, int row) {
+        if (count == candidates.length) {
+            candidates = Arrays.copyOf(candidates, 2*count);
+        }
+        candidates[count] = row;
+        return count+1;
+    }
+
+    private void addLarge(int row) {
+        large[row] = true;
+        largeRows[largeCount++] = row;
+    }
+
+    private int slot(int ix, int iy, int iz) {
+        return (ix*HASH[0] ^ iy*HASH[1] ^ iz*HASH[2]) & mask;
+    }
+
+    private void ensureCapacity(int n) {
+        if (next.length < n) {
+            int capacity = Math.max(n, 2*next.length);
+            cellX = new int[capacity];
+            cellY = new int[capacity];
+            cellZ = new int[capacity];
+            next = new int[capacity];
+            large = new boolean[capacity];
+            largeRows = new int[capacity];
+
+            // Twice as many slots as rows keeps the lists short
+            head = new int[Integer.highestOneBit(2*capacity-1) << 1];
+            mask = head.length-1;
+        }
+    }
+}
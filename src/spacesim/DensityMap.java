@@ -0,0 +1,209 @@
+/**
+ * Draws the bodies as a map of where the mass is, for when there are too many
+ * to draw one by one. Each body's mass is added to the pixel its centre falls
+ * on, the sums are shaded on a log scale, and the whole map is drawn as one
+ * image. Once the bodies are projected, the work is per pixel, so it takes
+ * about as long for a hundred thousand bodies as for a hundred.
+ *
+ * Finding the pixels, adding up and shading are all split across the threads
+ * with Parallel. The adding up is split by bands of rows of pixels. The bodies
+ * are first sorted by the band they land in, with a counting sort, so each
+ * thread goes through only the bodies in its own bands and no locking is
+ * needed.
+ */
+
+package spacesim;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+public class DensityMap {
+    // Masses are added up in these units, so that the sums can be ints
+    private static final double MASS_UNIT = 0.01;
+
+    // The most one body adds, so a couple of thousand of the heaviest in one
+    // pixel still fit in an int
+    private static final int MAX_MASS = 1 << 20;
+
+    // The fewest rows of pixels worth giving a thread, and how many rows the
+    // bodies are sorted into bands of
+    private static final int MIN_ROWS = 8;
+
+    // The color for each shade, from empty to the most mass
+    private static final int SHADES = 256;
+    private static final int[] PALETTE = palette();
+
+    private BufferedImage image;
+    private int[] pixels;
+    private int[] density = new int[0];
+
+    // The pixel each body lands on, or -1 if it is out of view, and its mass
+    private int[] bodyPixel = new int[0];
+    private int[] bodyMass = new int[0];
+
+    // The rows of the bodies in each band, in order of band, and where each
+    // band starts. Band b's bodies are bandBodies[bandStart[b]] up to
+    // bandBodies[bandStart[b+1]]
+    private int[] bandBodies = new int[0];
+    private int[] bandStart = new int[0];
+
+    // What the frame being drawn is drawn from
+    private WorldSnapshot world;
+    private Projection projection;
+    private int width;
+    private double shadeScale;
+
+    // The most mass in any pixel of each row
+    private int[] rowMax = new int[0];
+
+    private final Parallel.RangeTask project = new Parallel.RangeTask() {
+        @Override
+        public void run(int from, int to) {
+            int height = rowMax.length;
+            float[] x = projection.bodyX, y = projection.bodyY;
+            for (int i = from; i < to; i++) {
+                int px = (int) Math.floor(x[i]);
+                int py = (int) Math.floor(y[i]);
+                if (px < 0 || px >= width || py < 0 || py >= height) {
+                    bodyPixel[i] = -1;
+                } else {
+                    bodyPixel[i] = py*width + px;
+                    bodyMass[i] = (int) Math.max(1, Math.min(MAX_MASS, world.mass[i]/MASS_UNIT));
+                }
+            }
+        }
+    };
+
+    private final Parallel.RangeTask add = new Parallel.RangeTask() {
+        @Override
+        public void run(int fromBand, int toBand) {
+            int fromRow = fromBand*MIN_ROWS, toRow = Math.min(rowMax.length, toBand*MIN_ROWS);
+            int[] density = DensityMap.this.density;
+            for (int p = fromRow*width; p < toRow*width; p++) {
+                density[p] = 0;
+            }
+            for (int k = bandStart[fromBand]; k < bandStart[toBand]; k++) {
+                int i = bandBodies[k];
+                density[bodyPixel[i]] += bodyMass[i];
+            }
+
+            // Keep track of the most mass in a pixel, for the shading
+            for (int y = fromRow; y < toRow; y++) {
+                int max = 0;
+                for (int p = y*width; p < (y+1)*width; p++) {
+                    max = Math.max(max, density[p]);
+                }
+                rowMax[y] = max;
+            }
+        }
+    };
+
+    private final Parallel.RangeTask shade = new Parallel.RangeTask() {
+        @Override
+        public void run(int fromRow, int toRow) {
+            int[] density = DensityMap.this.density;
+            for (int p = fromRow*width; p < toRow*width; p++) {
+                int d = density[p];
+                pixels[p] = d == 0 ? PALETTE[0] : PALETTE[1 + (int) (shadeScale*Math.log(1 + d))];
+            }
+        }
+    };
+
+    /**
+     * Draw the map of a snapshot
+     * @param g Where to draw
+     * @param world What to draw
+     * @param projection Where the bodies of the snapshot are on the screen,
+     * already projected
+     */
+    public void render(Graphics g, WorldSnapshot world, Projection projection) {
+        int width = projection.getWidth(), height = projection.getHeight();
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        ensureCapacity(world.size, width, height);
+        this.world = world;
+        this.projection = projection;
+        this.width = width;
+
+        Parallel.forRange(world.size, project);
+        binBodies(world.size);
+        Parallel.forRange(bandStart.length - 1, 1, add);
+
+        int max = 0;
+        for (int y = 0; y < height; y++) {
+            max = Math.max(max, rowMax[y]);
+        }
+        // The most mass gets the last shade, and the least the first after
+        // empty
+        shadeScale = max == 0 ? 0 : (SHADES - 2)/Math.log(1 + max);
+        Parallel.forRange(height, MIN_ROWS, shade);
+
+        g.drawImage(image, 0, 0, null);
+        this.world = null;
+        this.projection = null;
+    }
+
+    /**
+     * Sort the bodies in view into the bands of rows they land in
+     */
+    private void binBodies(int n) {
+        int bands = bandStart.length - 1;
+        Arrays.fill(bandStart, 0);
+        int bandPixels = MIN_ROWS*width;
+        for (int i = 0; i < n; i++) {
+            if (bodyPixel[i] >= 0) {
+                bandStart[bodyPixel[i]/bandPixels + 1]++;
+            }
+        }
+        for (int b = 0; b < bands; b++) {
+            bandStart[b+1] += bandStart[b];
+        }
+        for (int i = 0; i < n; i++) {
+            if (bodyPixel[i] >= 0) {
+                bandBodies[bandStart[bodyPixel[i]/bandPixels]++] = i;
+            }
+        }
+        System.arraycopy(bandStart, 0, bandStart, 1, bands);
+        bandStart[0] = 0;
+    }
+
+    private void ensureCapacity(int n, int width, int height) {
+        if (bodyPixel.length < n) {
+            int capacity = Math.max(n, 2*bodyPixel.length);
+            bodyPixel = new int[capacity];
+            bodyMass = new int[capacity];
+            bandBodies = new int[capacity];
+        }
+        if (image == null || image.getWidth() != width || image.getHeight() != height) {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            density = new int[width*height];
+            rowMax = new int[height];
+            bandStart = new int[(height + MIN_ROWS - 1)/MIN_ROWS + 1];
+        }
+    }
+
+    /**
+     * @return White for empty, then pale blue through to black for the most
+     * mass
+     */
+    private static int[] palette() {
+        int[] palette = new int[SHADES];
+        palette[0] = 0xffffff;
+        int[] from = {0xb0, 0xc8, 0xff}, middle = {0x00, 0x00, 0xff}, to = {0x00, 0x00, 0x00};
+        for (int i = 1; i < SHADES; i++) {
+            double f = (double) (i - 1)/(SHADES - 2);
+            int[] a = f < 0.5 ? from : middle, b = f < 0.5 ? middle : to;
+            double t = f < 0.5 ? 2*f : 2*f - 1;
+            int rgb = 0;
+            for (int c = 0; c < 3; c++) {
+                rgb = (rgb << 8) | (int) Math.round(a[c] + t*(b[c] - a[c]));
+            }
+            palette[i] = rgb;
+        }
+        return palette;
+    }
+}
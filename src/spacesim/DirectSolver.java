@@ -0,0 +1,57 @@
+/**
+ * Exact gravity, found by summing the force from every other body. The rows
+ * are shared out across the worker threads
+ */
+
+package spacesim;
+
+public class DirectSolver implements ForceSolver, Parallel.RangeTask {
+    // The force evaluation being worked on
+    private int n;
+    private ForceLaw forceLaw;
+    private double[] m, x, y, z, ax, ay, az;
+    
+    @Override
+    public void accelerations(BodyStore bodies, ForceLaw forceLaw, double[] x, double[] y, double[] z,
+            double[] ax, double[] ay, double[] az) {
+        this.n = bodies.size;
+        this.forceLaw = forceLaw;
+        this.m = bodies.mass;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.ax = ax;
+        this.ay = ay;
+        this.az = az;
+        Parallel.forRange(n, this);
+    }
+    
+    @Override
+    public void run(int from, int to) {
+        double[] m = this.m, x = this.x, y = this.y, z = this.z;
+        int n = this.n;
+        ForceLaw forceLaw = this.forceLaw;
+        
+        for (int i = from; i < to; i++) {
+            double xi = x[i], yi = y[i], zi = z[i];
+            double sx = 0, sy = 0, sz = 0;
+            for (int j = 0; j < n; j++) {
+                if (j != i) {
+                    double dx = x[j] - xi;
+                    double dy = y[j] - yi;
+                    double dz = z[j] - zi;
+                    double dsq = dx*dx + dy*dy + dz*dz;
+                    if (dsq > 0.0000001) {
+                        double f = SimulationEngine.GRAV_CONST*m[j]*forceLaw.scale(dsq);
+                        sx += f*dx;
+                        sy += f*dy;
+                        sz += f*dz;
+                    }
+                }
+            }
+            ax[i] = sx;
+            ay[i] = sy;
+            az[i] = sz;
+        }
+    }
+}
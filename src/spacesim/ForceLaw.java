@@ -0,0 +1,123 @@
+/**
+ * How the pull between two bodies changes with their distance. A force going
+ * as r^n gives an acceleration of G m r^n along the unit separation, which is
+ * G m r^(n-1) times the separation itself. Each law the GUI offers has a
+ * kernel for that factor that works from the squared distance with only
+ * multiplies, divides and at most one square root, so the force loops never
+ * call Math.pow. The law is picked once, when the user changes it, and passed
+ * down to the solvers.
+ */
+
+package spacesim;
+
+public abstract class ForceLaw {
+    public static final ForceLaw INVERSE_CUBE = new ForceLaw(-3, "1/r^3") {
+        @Override
+        public double scale(double dsq) {
+            return 1.0/(dsq*dsq);
+        }
+    };
+    
+    public static final ForceLaw INVERSE_SQUARE = new ForceLaw(-2, "1/r^2") {
+        @Override
+        public double scale(double dsq) {
+            return 1.0/(dsq*Math.sqrt(dsq));
+        }
+    };
+    
+    public static final ForceLaw INVERSE = new ForceLaw(-1, "1/r") {
+        @Override
+        public double scale(double dsq) {
+            return 1.0/dsq;
+        }
+    };
+    
+    public static final ForceLaw LINEAR = new ForceLaw(1, "r") {
+        @Override
+        public double scale(double dsq) {
+            return 1.0;
+        }
+    };
+    
+    public static final ForceLaw SQUARE = new ForceLaw(2, "r^2") {
+        @Override
+        public double scale(double dsq) {
+            return Math.sqrt(dsq);
+        }
+    };
+    
+    private static final ForceLaw[] LAWS = {INVERSE_CUBE, INVERSE_SQUARE, INVERSE, LINEAR, SQUARE};
+    
+    private final int exponent;
+    private final String name;
+    
+    protected ForceLaw(int exponent, String name) {
+        this.exponent = exponent;
+        this.name = name;
+    }
+    
+    /**
+     * @param exponent The power of r the force goes as
+     * @return The kernel for that law, or the general one using Math.pow if
+     * there is no kernel for it
+     */
+    public static ForceLaw forExponent(int exponent) {
+        for (ForceLaw law : LAWS) {
+            if (law.exponent == exponent) {
+                return law;
+            }
+        }
+        return pow(exponent);
+    }
+    
+    /**
+     * @param name The law as shown in the GUI, such as "1/r^2"
+     * @return The kernel for that law
+     */
+    public static ForceLaw forName(String name) {
+        for (ForceLaw law : LAWS) {
+            if (law.name.equals(name)) {
+                return law;
+            }
+        }
+        throw new IllegalArgumentException("Unknown force law: "+name);
+    }
+    
+    /**
+     * The general law for any power, which is what every law used to be
+     * calculated with. Kept for comparison
+     * @param exponent The power of r the force goes as
+     */
+    public static ForceLaw pow(final int exponent) {
+        return new ForceLaw(exponent, "r^"+exponent+" (pow)") {
+            @Override
+            public double scale(double dsq) {
+                double dr = Math.sqrt(dsq);
+                return Math.pow(dr, exponent)/dr;
+            }
+        };
+    }
+    
+    /**
+     * @return Every law that has its own kernel
+     */
+    public static ForceLaw[] values() {
+        return LAWS.clone();
+    }
+    
+    public int getExponent() {
+        return exponent;
+    }
+    
+    /**
+     * @param dsq The squared distance between two bodies, which is never 0
+     * @return r^(n-1). Multiplied by G, the mass pulling, and the separation
+     * this is the acceleration
+     */
+    public abstract double scale(double dsq);
+    
+    @Override
+    public String toString() {
+        return name;
+    }
+}
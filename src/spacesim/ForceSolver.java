@@ -0,0 +1,24 @@
+/**
+ * Computes the gravitational acceleration felt by every body. The simulation
+ * can switch between solvers at runtime, so all of them sit behind this
+ * interface
+ */
+
+package spacesim;
+
+public interface ForceSolver {
+    /**
+     * Figure out the acceleration from gravity on every body, with all of the
+     * bodies at the given positions. One call is one force evaluation
+     * @param bodies Gives the number of bodies and their masses
+     * @param forceLaw How the force changes with distance
+     * @param x x position of each row
+     * @param y y position of each row
+     * @param z z position of each row
+     * @param ax Where the x component of each row's acceleration is written
+     * @param ay Where the y component of each row's acceleration is written
+     * @param az Where the z component of each row's acceleration is written
+     */
+    public void accelerations(BodyStore bodies, ForceLaw forceLaw, double[] x, double[] y, double[] z,
+            double[] ax, double[] ay, double[] az);
+}
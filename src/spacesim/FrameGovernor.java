@@ -0,0 +1,190 @@
+/**
+ * Keeps the window responsive when there is more to do than fits in a frame,
+ * as after adding a lot of bodies at once. After every frame it adds up how
+ * long the frame took to draw and how long the physics spent stepping since
+ * the last one, and compares that with the time a frame has.
+ *
+ * When frames keep going over, it turns down whichever of the two took
+ * longer: the renderers draw less detail, or the scheduler takes fewer steps
+ * each tick. Once there has been time to spare for a while, it turns them
+ * back up one at a time, the detail first. It waits a few frames after each
+ * change to see what it did before changing anything else.
+ */
+
+package spacesim;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class FrameGovernor {
+    // The time a frame has, for a display that refreshes 60 times a second
+    public static final long DEFAULT_BUDGET = 1000000000L/60;
+
+    // How many frames in a row have to go over before anything is turned down
+    private static final int OVER_FRAMES = 3;
+
+    // How many frames in a row have to come in under RESTORE_LOAD of the
+    // budget before anything is turned back up
+    private static final int UNDER_FRAMES = 60;
+    private static final double RESTORE_LOAD = 0.5;
+
+    // How many frames to wait after a change before making another
+    private static final int SETTLE_FRAMES = 10;
+
+    private final Scheduler scheduler;
+    private final CopyOnWriteArrayList<Renderer> renderers = new CopyOnWriteArrayList<>();
+
+    private volatile boolean enabled = true;
+    private volatile long budget = DEFAULT_BUDGET;
+
+    // What is turned down now. No cap on the steps is Integer.MAX_VALUE
+    private volatile int detail = Renderer.DETAIL_FULL;
+    private volatile int maxSteps = Integer.MAX_VALUE;
+
+    // The scheduler's stepping time at the last frame, or -1 before the first
+    private long lastStepNanos = -1;
+    private int overFrames = 0, underFrames = 0, settleFrames = 0;
+
+    /**
+     * @param scheduler The physics to cap the steps of
+     */
+    public FrameGovernor(Scheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @param renderer A renderer to turn the detail of up and down
+     */
+    public void addRenderer(Renderer renderer) {
+        renderers.add(renderer);
+        renderer.setDetail(detail);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param enabled Whether to turn things down under load. Turning it off
+     * puts everything back to full
+     */
+    public synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            apply(Renderer.DETAIL_FULL, Integer.MAX_VALUE);
+            overFrames = underFrames = settleFrames = 0;
+        }
+    }
+
+    /**
+     * @param budget How long a frame has, drawing and physics together, in
+     * nanoseconds
+     */
+    public void setBudget(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * @return How much detail the renderers have been turned down to
+     */
+    public int getDetail() {
+        return detail;
+    }
+
+    /**
+     * @return The most steps the scheduler is let take in a tick, or
+     * Integer.MAX_VALUE if they are not capped
+     */
+    public int getMaxSteps() {
+        return maxSteps;
+    }
+
+    /**
+     * @return What has been turned down, for showing in the window, or an
+     * empty string if nothing has
+     */
+    public String describe() {
+        int detail = this.detail, maxSteps = this.maxSteps;
+        String s = "";
+        switch (detail) {
+            case Renderer.DETAIL_FEWER_DOTS: s = "half the dots"; break;
+            case Renderer.DETAIL_DOT_POINTS: s = "dots as points"; break;
+            case Renderer.DETAIL_POINTS: s = "bodies as points"; break;
+        }
+        if (maxSteps != Integer.MAX_VALUE) {
+            s += (s.isEmpty() ? "" : ", ")+"at most "+maxSteps+(maxSteps == 1 ? " step" : " steps")+"/tick";
+        }
+        return s;
+    }
+
+    /**
+     * Tell the governor a frame has been drawn. Can be called from any thread
+     * @param drawNanos How long the frame took to draw, in nanoseconds
+     */
+    public synchronized void frameDrawn(long drawNanos) {
+        long stepNanos = scheduler.getStepNanos();
+        long stepped = lastStepNanos < 0 ? 0 : stepNanos - lastStepNanos;
+        lastStepNanos = stepNanos;
+        if (!enabled) {
+            return;
+        }
+        if (settleFrames > 0) {
+            settleFrames--;
+            return;
+        }
+
+        long total = drawNanos + stepped;
+        if (total > budget) {
+            underFrames = 0;
+            if (++overFrames >= OVER_FRAMES) {
+                overFrames = 0;
+                turnDown(stepped > drawNanos);
+            }
+        } else if (total < RESTORE_LOAD*budget) {
+            overFrames = 0;
+            if (++underFrames >= UNDER_FRAMES) {
+                underFrames = 0;
+                turnUp();
+            }
+        } else {
+            overFrames = underFrames = 0;
+        }
+    }
+
+    /**
+     * Turn down the physics or the detail, or the other if that one cannot
+     * go any lower
+     * @param physics Whether the physics took longer than drawing
+     */
+    private void turnDown(boolean physics) {
+        int steps = Math.min(maxSteps, scheduler.getSpeed());
+        boolean canCap = steps > 1;
+        boolean canDetail = detail < Renderer.DETAIL_POINTS;
+        if (canCap && (physics || !canDetail)) {
+            apply(detail, Math.max(1, steps/2));
+        } else if (canDetail) {
+            apply(detail+1, maxSteps);
+        }
+    }
+
+    private void turnUp() {
+        if (detail > Renderer.DETAIL_FULL) {
+            apply(detail-1, maxSteps);
+        } else if (maxSteps != Integer.MAX_VALUE) {
+            int steps = 2*maxSteps;
+            apply(detail, steps >= scheduler.getSpeed() ? Integer.MAX_VALUE : steps);
+        }
+    }
+
+    private void apply(int detail, int maxSteps) {
+        if (detail == this.detail && maxSteps == this.maxSteps) {
+            return;
+        }
+        this.detail = detail;
+        this.maxSteps = maxSteps;
+        for (Renderer renderer : renderers) {
+            renderer.setDetail(detail);
+        }
+        scheduler.setMaxSteps(maxSteps);
+        settleFrames = SETTLE_FRAMES;
+    }
+}
@@ -0,0 +1,37 @@
+/**
+ * Runs the simulation from the command line, with no window. Starts from a
+ * random sun and planets, takes the given number of steps, and prints the
+ * state of every body that is left. Run with
+ * java -cp SpaceSim.jar spacesim.HeadlessRun [bodies] [steps] [seed]
+ */
+
+package spacesim;
+
+public class HeadlessRun {
+    public static void main(String args[]) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        long steps = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+        
+        final SimulationEngine engine = new SimulationEngine();
+        engine.addRandomBodies(n, seed);
+        System.out.println(n+" bodies, "+steps+" steps, seed "+seed+", "
+                +engine.getIntegrator().getName());
+        
+        BatchRun.forSteps(engine, steps).run(new BatchRun.Progress() {
+            @Override
+            public void progress(double fraction, long steps, double stepsPerSecond) {
+                System.out.printf("%3.0f%%  step %d  t %.1f  %d bodies  %.1f steps/s%n", 100*fraction,
+                        steps, engine.getTime(), engine.getBodies().size(), stepsPerSecond);
+            }
+        });
+        
+        BodyStore bodies = engine.getBodies();
+        System.out.println();
+        System.out.println("id,x,y,z,vx,vy,vz,mass,radius");
+        for (int i = 0; i < bodies.size; i++) {
+            System.out.println(bodies.ids[i]+","+bodies.x[i]+","+bodies.y[i]+","+bodies.z[i]+","
+                    +bodies.vx[i]+","+bodies.vy[i]+","+bodies.vz[i]+","+bodies.mass[i]+","+bodies.radius[i]);
+        }
+    }
+}
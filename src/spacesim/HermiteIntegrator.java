@@ -0,0 +1,283 @@
+/**
+ * Fourth order Hermite predictor-corrector with hierarchical block time steps.
+ * Every body picks its own time step from its acceleration and jerk, rounded
+ * down to the simulation step divided by a power of two. Bodies on calm orbits
+ * take the whole step at once, while a body passing close to a sun takes many
+ * small ones, and only the bodies that are due at each point in time have
+ * their forces recalculated. Everyone lines up again at the end of the step.
+ *
+ * Hermite needs the jerk as well as the acceleration, which the force solvers
+ * do not give, so this always sums the forces directly.
+ */
+
+package spacesim;
+
+import java.util.Arrays;
+
+public class HermiteIntegrator extends Integrator {
+    // Times inside a step are counted in ticks so that the blocks line up
+    // exactly. A body's step is at least dt / 2^MAX_LEVEL, which also bounds a
+    // step at 2^MAX_LEVEL blocks, all taken while holding the bodies' lock. A
+    // body that wants a smaller step than that gets the smallest there is
+    private static final int MAX_LEVEL = 12;
+    private static final long TICKS = 1L << MAX_LEVEL;
+
+    // Accuracy parameters for the time step of each body
+    private static final double ETA = 0.02;
+    private static final double ETA_START = 0.01;
+
+    // Jerk of each body, at the same time as its acceleration
+    private double[] jx = new double[0], jy = new double[0], jz = new double[0];
+
+    // Every body predicted to the time of the current block
+    private double[] px = new double[0], py = new double[0], pz = new double[0];
+    private double[] pvx = new double[0], pvy = new double[0], pvz = new double[0];
+
+    // Time step of each body is dt / 2^level, and the tick it has reached
+    private int[] level = new int[0];
+    private long[] time = new long[0];
+
+    private final double[] force = new double[6];
+    private long interactions = 0;
+
+    // What the accelerations, jerks, and levels were calculated for
+    private BodyStore initStore;
+    private ForceLaw initForceLaw;
+    private int initEpoch = -1;
+    private double initDt = -1;
+
+    @Override
+    public String getName() {
+        return "Hermite (Block Steps)";
+    }
+
+    /**
+     * @return How many pairs of bodies have had their force calculated so far
+     */
+    public long getInteractions() {
+        return interactions;
+    }
+
+    @Override
+    public void step(BodyStore bodies, ForceSolver solver, ForceLaw forceLaw, double dt) {
+        int n = bodies.size;
+        ensureCapacity(n);
+        double[] x = bodies.x, y = bodies.y, z = bodies.z;
+        double[] vx = bodies.vx, vy = bodies.vy, vz = bodies.vz;
+        boolean[] moveable = bodies.moveable;
+
+        // Start over if anything was changed since the last step, whether by
+        // another integrator or from outside
+        if (bodies != initStore || forceLaw != initForceLaw || bodies.epoch != initEpoch) {
+            for (int i = 0; i < n; i++) {
+                predict(bodies, i, 0);
+            }
+            for (int i = 0; i < n; i++) {
+                if (moveable[i]) {
+                    forceAndJerk(bodies, i, forceLaw);
+                    ax[i] = force[0];
+                    ay[i] = force[1];
+                    az[i] = force[2];
+                    jx[i] = force[3];
+                    jy[i] = force[4];
+                    jz[i] = force[5];
+                }
+            }
+            initStore = bodies;
+            initForceLaw = forceLaw;
+            initDt = -1;
+        }
+        if (dt != initDt) {
+            for (int i = 0; i < n; i++) {
+                if (moveable[i]) {
+                    double a = norm(ax[i], ay[i], az[i]);
+                    double j = norm(jx[i], jy[i], jz[i]);
+                    level[i] = levelFor(j > 0 ? ETA_START*a/j : dt, dt, 0);
+                }
+            }
+            initDt = dt;
+        }
+        Arrays.fill(time, 0, n, 0);
+
+        long now = 0;
+        while (now < TICKS) {
+            // The next block is the earliest time any body is due
+            long next = TICKS;
+            for (int i = 0; i < n; i++) {
+                if (moveable[i]) {
+                    next = Math.min(next, time[i] + (TICKS >> level[i]));
+                }
+            }
+
+            for (int i = 0; i < n; i++) {
+                predict(bodies, i, (next - time[i])*dt/TICKS);
+            }
+
+            for (int i = 0; i < n; i++) {
+                if (!moveable[i] || time[i] + (TICKS >> level[i]) != next) {
+                    continue;
+                }
+
+                double h = dt/(1L << level[i]);
+                forceAndJerk(bodies, i, forceLaw);
+                double ax1 = force[0], ay1 = force[1], az1 = force[2];
+                double jx1 = force[3], jy1 = force[4], jz1 = force[5];
+
+                // Fit the higher derivatives from the old and new acceleration and jerk
+                double h2 = h*h, h3 = h2*h;
+                double sx = (-6*(ax[i]-ax1) - h*(4*jx[i]+2*jx1))/h2;
+                double sy = (-6*(ay[i]-ay1) - h*(4*jy[i]+2*jy1))/h2;
+                double sz = (-6*(az[i]-az1) - h*(4*jz[i]+2*jz1))/h2;
+                double cx = (12*(ax[i]-ax1) + 6*h*(jx[i]+jx1))/h3;
+                double cy = (12*(ay[i]-ay1) + 6*h*(jy[i]+jy1))/h3;
+                double cz = (12*(az[i]-az1) + 6*h*(jz[i]+jz1))/h3;
+
+                double h4 = h3*h, h5 = h4*h;
+                x[i] = px[i] + sx*h4/24 + cx*h5/120;
+                y[i] = py[i] + sy*h4/24 + cy*h5/120;
+                z[i] = pz[i] + sz*h4/24 + cz*h5/120;
+                vx[i] = pvx[i] + sx*h3/6 + cx*h4/24;
+                vy[i] = pvy[i] + sy*h3/6 + cy*h4/24;
+                vz[i] = pvz[i] + sz*h3/6 + cz*h4/24;
+                ax[i] = ax1;
+                ay[i] = ay1;
+                az[i] = az1;
+                jx[i] = jx1;
+                jy[i] = jy1;
+                jz[i] = jz1;
+                time[i] = next;
+
+                // Aarseth's time step criterion, using the snap and crackle
+                // moved to the end of the step
+                double a = norm(ax1, ay1, az1);
+                double j = norm(jx1, jy1, jz1);
+                double s = norm(sx + h*cx, sy + h*cy, sz + h*cz);
+                double c = norm(cx, cy, cz);
+                double bottom = j*c + s*s;
+                double wanted = bottom > 0 ? Math.sqrt(ETA*(a*s + j*j)/bottom) : dt;
+
+                if (wanted < h) {
+                    level[i] = levelFor(wanted, dt, level[i]);
+                } else if (wanted >= 2*h && level[i] > 0 && next % (TICKS >> (level[i]-1)) == 0) {
+                    // Only grow when the bigger step still lines up with the blocks
+                    level[i]--;
+                }
+            }
+            now = next;
+        }
+
+        Arrays.fill(time, 0, n, 0);
+        moved(bodies);
+        initEpoch = bodies.epoch;
+    }
+
+    /**
+     * Taylor expand a body's position and velocity forward in time. Bodies
+     * that are not moveable stay where they are
+     * @param i Row of the body
+     * @param delta How far ahead of the body's own time to predict
+     */
+    private void predict(BodyStore bodies, int i, double delta) {
+        if (!bodies.moveable[i] || delta == 0) {
+            px[i] = bodies.x[i];
+            py[i] = bodies.y[i];
+            pz[i] = bodies.z[i];
+            pvx[i] = bodies.moveable[i] ? bodies.vx[i] : 0;
+            pvy[i] = bodies.moveable[i] ? bodies.vy[i] : 0;
+            pvz[i] = bodies.moveable[i] ? bodies.vz[i] : 0;
+            return;
+        }
+
+        double d2 = delta*delta/2, d3 = delta*delta*delta/6;
+        px[i] = bodies.x[i] + bodies.vx[i]*delta + ax[i]*d2 + jx[i]*d3;
+        py[i] = bodies.y[i] + bodies.vy[i]*delta + ay[i]*d2 + jy[i]*d3;
+        pz[i] = bodies.z[i] + bodies.vz[i]*delta + az[i]*d2 + jz[i]*d3;
+        pvx[i] = bodies.vx[i] + ax[i]*delta + jx[i]*d2;
+        pvy[i] = bodies.vy[i] + ay[i]*delta + jy[i]*d2;
+        pvz[i] = bodies.vz[i] + az[i]*delta + jz[i]*d2;
+    }
+
+    /**
+     * Sum the acceleration and jerk on one body from all the others, at their
+     * predicted positions. The result goes into force
+     * @param i Row of the body
+     */
+    private void forceAndJerk(BodyStore bodies, int i, ForceLaw forceLaw) {
+        double[] m = bodies.mass;
+        int n = bodies.size;
+        double xi = px[i], yi = py[i], zi = pz[i];
+        double vxi = pvx[i], vyi = pvy[i], vzi = pvz[i];
+        double sax = 0, say = 0, saz = 0, sjx = 0, sjy = 0, sjz = 0;
+
+        for (int j = 0; j < n; j++) {
+            if (j == i) {
+                continue;
+            }
+            double dx = px[j] - xi;
+            double dy = py[j] - yi;
+            double dz = pz[j] - zi;
+            double dsq = dx*dx + dy*dy + dz*dz;
+            if (dsq > 0.0000001) {
+                double dvx = pvx[j] - vxi;
+                double dvy = pvy[j] - vyi;
+                double dvz = pvz[j] - vzi;
+
+                // a = G m r^(n-1) d, and its time derivative
+                double f = SimulationEngine.GRAV_CONST*m[j]*forceLaw.scale(dsq);
+                double rv = (forceLaw.getExponent()-1)*(dx*dvx + dy*dvy + dz*dvz)/dsq;
+                sax += f*dx;
+                say += f*dy;
+                saz += f*dz;
+                sjx += f*(dvx + rv*dx);
+                sjy += f*(dvy + rv*dy);
+                sjz += f*(dvz + rv*dz);
+            }
+        }
+        interactions += n-1;
+
+        force[0] = sax;
+        force[1] = say;
+        force[2] = saz;
+        force[3] = sjx;
+        force[4] = sjy;
+        force[5] = sjz;
+    }
+
+    /**
+     * @param wanted The time step a body would like
+     * @param dt The simulation step
+     * @param least The smallest level to consider
+     * @return The smallest level at least this big whose step is no longer than
+     * the one wanted
+     */
+    private static int levelFor(double wanted, double dt, int least) {
+        int k = least;
+        while (k < MAX_LEVEL && dt/(1L << k) > wanted) {
+            k++;
+        }
+        return k;
+    }
+
+    private static double norm(double x, double y, double z) {
+        return Math.sqrt(x*x + y*y + z*z);
+    }
+
+    @Override
+    protected void ensureCapacity(int n) {
+        super.ensureCapacity(n);
+        if (jx.length < n) {
+            int capacity = ax.length;
+            jx = Arrays.copyOf(jx, capacity);
+            jy = Arrays.copyOf(jy, capacity);
+            jz = Arrays.copyOf(jz, capacity);
+            px = Arrays.copyOf(px, capacity);
+            py = Arrays.copyOf(py, capacity);
+            pz = Arrays.copyOf(pz, capacity);
+            pvx = Arrays.copyOf(pvx, capacity);
+            pvy = Arrays.copyOf(pvy, capacity);
+            pvz = Arrays.copyOf(pvz, capacity);
+            level = Arrays.copyOf(level, capacity);
+            time = Arrays.copyOf(time, capacity);
+        }
+    }
+}
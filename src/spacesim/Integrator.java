@@ -0,0 +1,90 @@
+/**
+ * Advances every body in the simulation by one time step. The force on each
+ * body depends on where all of the others are, so the whole system is moved
+ * at once. Bodies that are not moveable still pull on the others but stay
+ * where they are.
+ *
+ * Scratch arrays are kept between steps and only grow, so a step does not
+ * allocate anything once the number of bodies has settled.
+ */
+
+package spacesim;
+
+import java.util.Arrays;
+
+public abstract class Integrator {
+    // Acceleration of each row
+    protected double[] ax = new double[0], ay = new double[0], az = new double[0];
+    
+    // What the accelerations were calculated from, so they can be reused by
+    // the next step when nothing has changed in between
+    private BodyStore accelStore;
+    private ForceSolver accelSolver;
+    private ForceLaw accelForceLaw;
+    private int accelEpoch = -1;
+    
+    /**
+     * @return The name to show in the menu
+     */
+    public abstract String getName();
+    
+    /**
+     * Move the system forward in time. Every step has to end with moved, so
+     * that anything worked out from the old positions is known to be out of
+     * date
+     * @param bodies Every body in the simulation
+     * @param solver Finds the force from gravity
+     * @param forceLaw How the force changes with distance
+     * @param dt time step
+     */
+    public abstract void step(BodyStore bodies, ForceSolver solver, ForceLaw forceLaw, double dt);
+    
+    /**
+     * Make sure the scratch arrays can hold every row
+     * @param n Number of rows
+     */
+    protected void ensureCapacity(int n) {
+        if (ax.length < n) {
+            int capacity = Math.max(n, 2*ax.length);
+            ax = Arrays.copyOf(ax, capacity);
+            ay = Arrays.copyOf(ay, capacity);
+            az = Arrays.copyOf(az, capacity);
+        }
+    }
+    
+    /**
+     * Fill ax, ay, az with the accelerations at the current positions. If the
+     * last step ended by calculating exactly these, they are reused instead of
+     * spending another force evaluation
+     */
+    protected void currentAccelerations(BodyStore bodies, ForceSolver solver, ForceLaw forceLaw) {
+        if (bodies != accelStore || solver != accelSolver || forceLaw != accelForceLaw
+                || bodies.epoch != accelEpoch) {
+            solver.accelerations(bodies, forceLaw, bodies.x, bodies.y, bodies.z, ax, ay, az);
+            rememberAccelerations(bodies, solver, forceLaw);
+        }
+    }
+    
+    /**
+     * Mark ax, ay, az as the accelerations at the current positions
+     */
+    protected void rememberAccelerations(BodyStore bodies, ForceSolver solver, ForceLaw forceLaw) {
+        accelStore = bodies;
+        accelSolver = solver;
+        accelForceLaw = forceLaw;
+        accelEpoch = bodies.epoch;
+    }
+    
+    /**
+     * Mark the bodies as having been moved by a step. Accelerations remembered
+     * before this, by this integrator or any other, are not used again
+     */
+    protected static void moved(BodyStore bodies) {
+        bodies.epoch++;
+    }
+    
+    @Override
+    public String toString() {
+        return getName();
+    }
+}
@@ -0,0 +1,49 @@
+/**
+ * Kick-drift-kick leapfrog. Half a kick to the velocities, a full drift of the
+ * positions, then another half kick with the new forces. It is symplectic, so
+ * the energy of an orbit wobbles instead of drifting away. The forces at the
+ * end of one step are the forces at the start of the next, so it only costs
+ * one force evaluation per step
+ */
+
+package spacesim;
+
+public class LeapfrogIntegrator extends Integrator {
+    @Override
+    public String getName() {
+        return "Leapfrog";
+    }
+    
+    @Override
+    public void step(BodyStore bodies, ForceSolver solver, ForceLaw forceLaw, double dt) {
+        int n = bodies.size;
+        ensureCapacity(n);
+        double[] x = bodies.x, y = bodies.y, z = bodies.z;
+        double[] vx = bodies.vx, vy = bodies.vy, vz = bodies.vz;
+        boolean[] moveable = bodies.moveable;
+        double half = dt*0.5;
+        
+        currentAccelerations(bodies, solver, forceLaw);
+        for (int i = 0; i < n; i++) {
+            if (moveable[i]) {
+                vx[i] += ax[i]*half;
+                vy[i] += ay[i]*half;
+                vz[i] += az[i]*half;
+                x[i] += vx[i]*dt;
+                y[i] += vy[i]*dt;
+                z[i] += vz[i]*dt;
+            }
+        }
+        
+        solver.accelerations(bodies, forceLaw, x, y, z, ax, ay, az);
+        for (int i = 0; i < n; i++) {
+            if (moveable[i]) {
+                vx[i] += ax[i]*half;
+                vy[i] += ay[i]*half;
+                vz[i] += az[i]*half;
+            }
+        }
+        moved(bodies);
+        rememberAccelerations(bodies, solver, forceLaw);
+    }
+}
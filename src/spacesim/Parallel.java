@@ -0,0 +1,194 @@
+/**
+ * Splits loops over the bodies across a pool of worker threads. Each chunk of
+ * rows is handled by one thread, which sums into its own local variables and
+ * only writes the rows it owns, so no locking is needed.
+ *
+ * Every thread that runs loops, such as the physics, the render thread and
+ * the event dispatch thread, has its own set of chunks and hands them to the
+ * shared pool by itself, so a loop from one never waits for a loop from
+ * another to finish. The calling thread does the first chunk and then sleeps
+ * until the last of the others wakes it. The chunks are reused from one call
+ * to the next, so running a loop does not allocate anything.
+ */
+
+package spacesim;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+public class Parallel {
+    // Below this many rows per chunk it is not worth handing work to a thread
+    private static final int MIN_ROWS = 64;
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private static volatile int threads;
+    private static volatile ForkJoinPool pool;
+
+    private static final ThreadLocal<Job> jobs = new ThreadLocal<Job>() {
+        @Override
+        protected Job initialValue() {
+            return new Job();
+        }
+    };
+
+    static {
+        setThreads(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * A loop body that handles a range of rows
+     */
+    public interface RangeTask {
+        /**
+         * @param from First row, inclusive
+         * @param to Last row, exclusive
+         */
+        public void run(int from, int to);
+    }
+
+    private Parallel() {}
+
+    public static int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Change how many threads loops are split across. Loops already running
+     * finish on the old threads
+     * @param n Number of threads, at least 1
+     */
+    public static synchronized void setThreads(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("Threads must be at least 1: "+n);
+        }
+        ForkJoinPool old = pool;
+        threads = n;
+        pool = n > 1 ? new ForkJoinPool(n) : null;
+        if (old != null) {
+            old.shutdown();
+        }
+    }
+
+    /**
+     * Run a task over the rows [0, n), split into chunks across the threads.
+     * Returns once every chunk is done
+     * @param n Number of rows
+     * @param task What to do with each chunk
+     */
+    public static void forRange(int n, RangeTask task) {
+        forRange(n, MIN_ROWS, task);
+    }
+
+    /**
+     * Run a task over [0, n), split into chunks across the threads. Can be
+     * called from several threads at once
+     * @param n Number of items
+     * @param minPerChunk The fewest items worth giving a chunk of their own
+     * @param task What to do with each chunk
+     */
+    public static void forRange(int n, int minPerChunk, RangeTask task) {
+        ForkJoinPool pool = Parallel.pool;
+        int parts = Math.min(threads*CHUNKS_PER_THREAD, n/minPerChunk);
+        if (pool == null || parts <= 1) {
+            task.run(0, n);
+            return;
+        }
+        jobs.get().run(pool, parts, n, task);
+    }
+
+    /**
+     * The chunks of one thread's loops
+     */
+    private static class Job {
+        private Chunk[] chunks = new Chunk[0];
+        private final AtomicInteger remaining = new AtomicInteger();
+        private Thread caller;
+        private volatile Throwable failure;
+
+        void run(ForkJoinPool pool, int parts, int n, RangeTask task) {
+            if (chunks.length < parts) {
+                Chunk[] grown = new Chunk[parts];
+                System.arraycopy(chunks, 0, grown, 0, chunks.length);
+                for (int i = chunks.length; i < parts; i++) {
+                    grown[i] = new Chunk(this);
+                }
+                chunks = grown;
+            }
+            caller = Thread.currentThread();
+            failure = null;
+            remaining.set(parts-1);
+            for (int i = 1; i < parts; i++) {
+                Chunk chunk = chunks[i];
+                chunk.task = task;
+                chunk.from = (int) ((long) i*n/parts);
+                chunk.to = (int) ((long) (i+1)*n/parts);
+                try {
+                    pool.execute(chunk);
+                } catch (RejectedExecutionException ex) {
+                    // The threads were changed and the old pool shut down
+                    chunk.exec();
+                }
+            }
+
+            try {
+                task.run(0, (int) ((long) n/parts));
+            } finally {
+                while (remaining.get() > 0) {
+                    LockSupport.park(this);
+                }
+                for (int i = 1; i < parts; i++) {
+                    chunks[i].task = null;
+                }
+            }
+
+            Throwable failed = failure;
+            if (failed instanceof RuntimeException) {
+                throw (RuntimeException) failed;
+            } else if (failed instanceof Error) {
+                throw (Error) failed;
+            }
+        }
+    }
+
+    /**
+     * One range of a loop. The job counts the chunks that are done itself, so
+     * a chunk never tells the pool it has finished. Otherwise the pool could
+     * mark it done after the job has already handed it out again
+     */
+    private static class Chunk extends ForkJoinTask<Void> {
+        private static final long serialVersionUID = 1L;
+        private final Job job;
+        RangeTask task;
+        int from, to;
+
+        Chunk(Job job) {
+            this.job = job;
+        }
+
+        @Override
+        public Void getRawResult() {
+            return null;
+        }
+
+        @Override
+        protected void setRawResult(Void value) {
+        }
+
+        @Override
+        protected boolean exec() {
+            try {
+                task.run(from, to);
+            } catch (RuntimeException | Error ex) {
+                job.failure = ex;
+            } finally {
+                if (job.remaining.decrementAndGet() == 0) {
+                    LockSupport.unpark(job.caller);
+                }
+            }
+            return false;
+        }
+    }
+}
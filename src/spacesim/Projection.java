@@ -0,0 +1,263 @@
+/**
+ * Works out where the bodies and their trails go on the screen, all at once
+ * for a frame. Positions in space are flattened onto the screen plane, with
+ * x doubled and z added to y, then zoomed and panned, and things nearer the
+ * viewer are drawn bigger by zZoomBase^-z.
+ *
+ * Each frame the snapshot's columns are turned into columns of screen
+ * positions, radii and depths, split across the threads with Parallel. The
+ * renderers, the culling and picking bodies with the mouse all read these
+ * instead of working the positions out again one at a time. The columns are
+ * reused from one frame to the next, so projecting does not allocate once
+ * they have grown to fit.
+ */
+
+package spacesim;
+
+public class Projection {
+    // How far either side of 0 the depth is looked up in the table of zZoom,
+    // rather than worked out
+    private static final int Z_RANGE = 8192;
+
+    // The fewest trails worth giving a thread, as each has a lot of points
+    private static final int MIN_TRAILS = 8;
+
+    private final double zZoomBase;
+
+    // zZoom at each whole unit of depth from -Z_RANGE, with one more at the
+    // end to go between
+    private final double[] zZoomTable = new double[2*Z_RANGE + 2];
+
+    // How the view is placed
+    private double zoom = 1;
+    private int dWindowX, dWindowY;
+    private int width, height;
+    private double centerX, centerY;
+
+    // The snapshot being projected
+    private WorldSnapshot world;
+
+    // Where each body's centre is on the screen, its radius in pixels, and
+    // how far back it is, as bits that sort as unsigned ints. One row per
+    // body, as in the snapshot
+    public int size;
+    public float[] bodyX = new float[0], bodyY = new float[0], bodyR = new float[0];
+    public int[] bodyDepth = new int[0];
+
+    // The same for the points of each body's trail, oldest first. The points
+    // of row j start at pointStart[j], and there are pointCount[j] of them.
+    // These are only filled in when trails are asked for, and the columns are
+    // as long as all the trails together
+    public int[] pointStart = new int[1];
+    public int[] pointCount = new int[0];
+    public float[] pointX = new float[0], pointY = new float[0], pointR = new float[0];
+    public int[] pointDepth = new int[0];
+
+    private final Parallel.RangeTask projectBodies = new Parallel.RangeTask() {
+        @Override
+        public void run(int from, int to) {
+            double[] x = world.x, y = world.y, z = world.z, radius = world.radius;
+            for (int i = from; i < to; i++) {
+                bodyX[i] = (float) screenX(x[i]);
+                bodyY[i] = (float) screenY(y[i], z[i]);
+                bodyR[i] = (float) (radius[i]*zoom*zZoom(z[i]));
+                bodyDepth[i] = sortableBits((float) -z[i]);
+            }
+        }
+    };
+
+    private final Parallel.RangeTask projectTrails = new Parallel.RangeTask() {
+        @Override
+        public void run(int from, int to) {
+            for (int j = from; j < to; j++) {
+                // The trail is read straight into the columns, with z where
+                // the radius goes, and then projected where it is
+                int start = pointStart[j];
+                int n = world.bodies[j].trail.read(pointX, pointY, pointR, start, pointStart[j+1] - start);
+                pointCount[j] = n;
+                double r = world.radius[j]*zoom;
+                for (int k = start; k < start + n; k++) {
+                    float z = pointR[k];
+                    pointX[k] = (float) screenX(pointX[k]);
+                    pointY[k] = (float) screenY(pointY[k], z);
+                    pointR[k] = (float) (r*zZoom(z));
+                    pointDepth[k] = sortableBits(-z);
+                }
+            }
+        }
+    };
+
+    /**
+     * @param zZoomBase How much bigger things get for every unit nearer they
+     * are
+     */
+    public Projection(double zZoomBase) {
+        this.zZoomBase = zZoomBase;
+        for (int k = 0; k < zZoomTable.length; k++) {
+            zZoomTable[k] = Math.pow(zZoomBase, -(k - Z_RANGE));
+        }
+    }
+
+    /**
+     * @param zoom How many pixels one unit of space is
+     * @param dWindowX How far the view is panned across
+     * @param dWindowY How far the view is panned down
+     * @param width Width of the area drawn on
+     * @param height Height of the area drawn on
+     */
+    public void setView(double zoom, int dWindowX, int dWindowY, int width, int height) {
+        this.zoom = zoom;
+        this.dWindowX = dWindowX;
+        this.dWindowY = dWindowY;
+        this.width = width;
+        this.height = height;
+        centerX = width/2.0;
+        centerY = height/2.0;
+    }
+
+    public double getZoom() {
+        return zoom;
+    }
+
+    public int getDWindowX() {
+        return dWindowX;
+    }
+
+    public int getDWindowY() {
+        return dWindowY;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Project every body of a snapshot, and their trails if asked
+     * @param world What to project
+     * @param trails Whether to read and project the trails as well
+     */
+    public void project(WorldSnapshot world, boolean trails) {
+        ensureCapacity(world.size, trails);
+        this.world = world;
+        size = world.size;
+        Parallel.forRange(size, projectBodies);
+        if (trails) {
+            placePoints(world);
+            Parallel.forRange(size, MIN_TRAILS, projectTrails);
+        }
+        this.world = null;
+    }
+
+    /**
+     * Find the body drawn at a point on the screen, from the last bodies
+     * projected
+     * @return Its row, or -1 if there is none there. Where bodies overlap it
+     * is the one drawn on top
+     */
+    public int pick(double x, double y) {
+        int picked = -1;
+        for (int i = 0; i < size; i++) {
+            double dx = x - bodyX[i];
+            double dy = y - bodyY[i];
+            double r = bodyR[i];
+            // Later rows are drawn over earlier ones at the same depth
+            if (dx*dx + dy*dy < r*r && (picked < 0
+                    || (bodyDepth[i] ^ Integer.MIN_VALUE) >= (bodyDepth[picked] ^ Integer.MIN_VALUE))) {
+                picked = i;
+            }
+        }
+        return picked;
+    }
+
+    /**
+     * @return How far across the screen a position in space goes
+     */
+    public double screenX(double x) {
+        return zoom*(dWindowX + planeX(x)) + centerX;
+    }
+
+    /**
+     * @return How far down the screen a position in space goes
+     */
+    public double screenY(double y, double z) {
+        return zoom*(dWindowY + planeY(y, z)) + centerY;
+    }
+
+    /**
+     * @return How much bigger things are drawn at a depth, zZoomBase^-z
+     */
+    public double zZoom(double z) {
+        double u = z + Z_RANGE;
+        if (!(u >= 0 && u < 2*Z_RANGE + 1)) {
+            return Math.pow(zZoomBase, -z);
+        }
+        // It changes so little from one unit to the next that going in a
+        // straight line between them is as good as working it out
+        int k = (int) u;
+        return zZoomTable[k] + (u - k)*(zZoomTable[k+1] - zZoomTable[k]);
+    }
+
+    /**
+     * @return How far across the screen plane a position in space is, before
+     * zooming and panning
+     */
+    public static double planeX(double x) {
+        return 2*x;
+    }
+
+    /**
+     * @return How far down the screen plane a position in space is, before
+     * zooming and panning
+     */
+    public static double planeY(double y, double z) {
+        return y + z;
+    }
+
+    /**
+     * @return The bits of a float, changed so that they sort as unsigned ints
+     * in the same order as the floats
+     */
+    public static int sortableBits(float f) {
+        int bits = Float.floatToIntBits(f);
+        return bits ^ ((bits >> 31) | 0x80000000);
+    }
+
+    /**
+     * Give each trail room in the columns for the points it has now. Any
+     * added before it is read are left out, oldest first, until next frame
+     */
+    private void placePoints(WorldSnapshot world) {
+        int total = 0;
+        for (int j = 0; j < size; j++) {
+            pointStart[j] = total;
+            total += world.bodies[j].trail.size();
+        }
+        pointStart[size] = total;
+        if (pointX.length < total) {
+            int capacity = Math.max(total, 2*pointX.length);
+            pointX = new float[capacity];
+            pointY = new float[capacity];
+            pointR = new float[capacity];
+            pointDepth = new int[capacity];
+        }
+    }
+
+    private void ensureCapacity(int n, boolean trails) {
+        if (bodyX.length < n) {
+            int capacity = Math.max(n, 2*bodyX.length);
+            bodyX = new float[capacity];
+            bodyY = new float[capacity];
+            bodyR = new float[capacity];
+            bodyDepth = new int[capacity];
+        }
+        if (trails && pointCount.length < n) {
+            int capacity = Math.max(n, 2*pointCount.length);
+            pointCount = new int[capacity];
+            pointStart = new int[capacity+1];
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/**
+ * Draws the simulation on its own thread, once per refresh of the display,
+ * however fast the physics is going. Each frame is drawn into an accelerated
+ * back buffer on this thread, which is the slow part, and then the component
+ * is asked to repaint. Its paintComponent copies the finished frame onto the
+ * screen with showLastFrame, so Swing is still only ever painted from the
+ * event dispatch thread. A frame is only drawn when there is a new snapshot or
+ * the view has moved.
+ *
+ * The thread is made once and sleeps while stopped, so it can be started and
+ * stopped any number of times, like the Scheduler.
+ */
+
+package spacesim;
+
+import java.awt.Color;
+import java.awt.DisplayMode;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.image.VolatileImage;
+import java.util.Arrays;
+import javax.swing.JComponent;
+
+public class RenderLoop implements Runnable {
+    // Used when the display does not say how often it refreshes
+    private static final int DEFAULT_REFRESH_RATE = 60;
+
+    // How many of the latest frame times the percentiles are taken over
+    private static final int FRAME_HISTORY = 120;
+
+    // How often the frames per second are worked out
+    private static final long RATE_WINDOW = 1000000000L;
+
+    private final SimulationEngine engine;
+    private final JComponent target;
+    private final Renderer renderer;
+    private volatile FrameGovernor governor;
+
+    private volatile boolean running = false;
+    private Thread thread;
+    private volatile SnapshotChannel channel;
+
+    // The view, as set from the event dispatch thread
+    private volatile double zoom = 1;
+    private volatile int dWindowX, dWindowY;
+    private volatile boolean viewChanged = true;
+
+    // Whether to keep showing the last frame without drawing any more
+    private volatile boolean held = false;
+
+    // What the last frame was drawn from
+    private long drawnEpoch = -1;
+    private int drawnWidth, drawnHeight;
+
+    // The frame being drawn and the last one finished. The finished one is
+    // only touched while holding the lock on this
+    private VolatileImage back, front;
+
+    private final long[] frameTimes = new long[FRAME_HISTORY];
+    private final long[] sortedTimes = new long[FRAME_HISTORY];
+    private int frames = 0;
+    private volatile double framesPerSecond = 0;
+
+    /**
+     * @param engine The simulation to draw
+     * @param target What to draw on
+     * @param renderer Draws the frames. Only the render thread uses it
+     */
+    public RenderLoop(SimulationEngine engine, JComponent target, Renderer renderer) {
+        this.engine = engine;
+        this.target = target;
+        this.renderer = renderer;
+    }
+
+    /**
+     * @param zoom How many pixels one unit of space is
+     * @param dWindowX How far the view is panned across
+     * @param dWindowY How far the view is panned down
+     */
+    public void setView(double zoom, int dWindowX, int dWindowY) {
+        if (zoom == this.zoom && dWindowX == this.dWindowX && dWindowY == this.dWindowY) {
+            return;
+        }
+        this.zoom = zoom;
+        this.dWindowX = dWindowX;
+        this.dWindowY = dWindowY;
+        viewChanged = true;
+    }
+
+    /**
+     * @param held Whether to keep showing the last frame instead of drawing
+     * new ones, as while a batch run is changing the bodies. Letting go draws
+     * a frame straight away
+     */
+    public void setHeld(boolean held) {
+        this.held = held;
+        viewChanged = true;
+    }
+
+    public Renderer getRenderer() {
+        return renderer;
+    }
+
+    /**
+     * @param governor Told how long each frame took, with the time a frame
+     * has set to the display's refresh. Can be null
+     */
+    public void setGovernor(FrameGovernor governor) {
+        this.governor = governor;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return How many frames a second were drawn, over the last second the
+     * loop was running and had something new to draw
+     */
+    public double getFramesPerSecond() {
+        return framesPerSecond;
+    }
+
+    /**
+     * @param fraction Which percentile, from 0 to 1
+     * @return How long drawing and showing a frame took at that percentile
+     * of the latest frames, in milliseconds, or 0 if none have been drawn
+     */
+    public synchronized double getFrameTime(double fraction) {
+        int n = Math.min(frames, FRAME_HISTORY);
+        if (n == 0) {
+            return 0;
+        }
+        System.arraycopy(frameTimes, 0, sortedTimes, 0, n);
+        Arrays.sort(sortedTimes, 0, n);
+        return sortedTimes[Math.min(n-1, (int) (fraction*n))]/1e6;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        channel = engine.openChannel();
+        if (!held) {
+            engine.publish();
+        }
+        viewChanged = true;
+        running = true;
+        if (thread == null) {
+            thread = new Thread(this, "Render");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Stop drawing. A frame that has already begun is finished
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        engine.closeChannel(channel);
+    }
+
+    /**
+     * Copy the last finished frame onto a graphics, for when the component
+     * has to be painted between frames
+     * @return Whether there was a frame to copy
+     */
+    public synchronized boolean showLastFrame(Graphics g) {
+        if (front == null || front.contentsLost()) {
+            return false;
+        }
+        g.drawImage(front, 0, 0, null);
+        return true;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                synchronized (this) {
+                    while (!running) {
+                        wait();
+                    }
+                }
+                runWhileRunning();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runWhileRunning() throws InterruptedException {
+        long next = System.nanoTime();
+        long windowStart = next, windowFrames = 0;
+        long frameNanos = 1000000000L/refreshRate();
+        FrameGovernor governor = this.governor;
+        if (governor != null) {
+            governor.setBudget(frameNanos);
+        }
+
+        while (running) {
+            long start = System.nanoTime();
+            if (drawFrame()) {
+                long time = System.nanoTime() - start;
+                synchronized (this) {
+                    frameTimes[frames % FRAME_HISTORY] = time;
+                    frames++;
+                }
+                windowFrames++;
+                governor = this.governor;
+                if (governor != null) {
+                    governor.frameDrawn(time);
+                }
+            }
+
+            long now = System.nanoTime();
+            if (now - windowStart >= RATE_WINDOW) {
+                framesPerSecond = windowFrames*1e9/(now - windowStart);
+                windowStart = now;
+                windowFrames = 0;
+            }
+
+            // Wait for the next refresh, without catching up on any that were
+            // missed
+            next = Math.max(next + frameNanos, now);
+            long sleep = next - System.nanoTime();
+            if (sleep > 0) {
+                Thread.sleep(sleep/1000000, (int) (sleep%1000000));
+            }
+        }
+        framesPerSecond = 0;
+    }
+
+    /**
+     * Draw the newest snapshot into the back buffer and show it
+     * @return Whether a frame was drawn
+     */
+    private boolean drawFrame() {
+        GraphicsConfiguration gc = target.getGraphicsConfiguration();
+        int width = target.getWidth(), height = target.getHeight();
+        if (held || gc == null || !target.isShowing() || width <= 0 || height <= 0) {
+            return false;
+        }
+        WorldSnapshot world = channel.getSnapshot();
+        if (world.epoch == drawnEpoch && !viewChanged && width == drawnWidth && height == drawnHeight) {
+            return false;
+        }
+        viewChanged = false;
+        drawnEpoch = world.epoch;
+        drawnWidth = width;
+        drawnHeight = height;
+
+        Color background = target.getBackground();
+        renderer.setView(zoom, dWindowX, dWindowY);
+        renderer.setBackground(background);
+        int pathMode = engine.getPathMode();
+        do {
+            if (back == null || back.getWidth() != width || back.getHeight() != height
+                    || back.validate(gc) == VolatileImage.IMAGE_INCOMPATIBLE) {
+                if (back != null) {
+                    back.flush();
+                }
+                back = gc.createCompatibleVolatileImage(width, height);
+            }
+            Graphics2D g = back.createGraphics();
+            g.setColor(background);
+            g.fillRect(0, 0, width, height);
+            renderer.render(g, world, width, height, pathMode);
+            g.dispose();
+        } while (back.contentsLost());
+
+        // Make it the finished frame, and have it put on the screen
+        synchronized (this) {
+            VolatileImage swap = front;
+            front = back;
+            back = swap;
+        }
+        target.repaint();
+        return true;
+    }
+
+    private int refreshRate() {
+        GraphicsConfiguration gc = target.getGraphicsConfiguration();
+        if (gc != null) {
+            DisplayMode mode = gc.getDevice().getDisplayMode();
+            if (mode != null && mode.getRefreshRate() != DisplayMode.REFRESH_RATE_UNKNOWN) {
+                return mode.getRefreshRate();
+            }
+        }
+        return DEFAULT_REFRESH_RATE;
+    }
+}
@@ -0,0 +1,369 @@
+/**
+ * Draws a snapshot of the simulation. Bodies and trail dots are drawn as
+ * circles from the back to the front, so nearer ones cover farther ones, and
+ * trails can instead be drawn as lines on a TrailLayer underneath them.
+ * Where everything goes on the screen is worked out first by a Projection,
+ * for every body and trail point at once. Circles wholly outside the view are
+ * then dropped before they are sorted, and circles too small to draw are
+ * plotted as a single pixel.
+ *
+ * Everything a frame needs is kept in primitive arrays that are reused from
+ * one frame to the next, so once they have grown to fit, drawing a frame does
+ * not allocate anything. The depths are copied out once per frame and sorted
+ * with a radix sort, which takes a few passes over them however many there
+ * are, and gives the same order every time for the same depths.
+ *
+ * The circles are either drawn one at a time with Java2D, or handed to a
+ * TileRasterizer, which draws them on all the threads at once. Java2D
+ * draws most circles by copying a picture of them from a SpriteCache.
+ */
+
+package spacesim;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Map;
+
+public class Renderer {
+    // How much is left out to draw faster. Every second trail dot is left
+    // out, then three in four and the rest plotted as points, and then small
+    // bodies are plotted as points as well
+    public static final int DETAIL_FULL = 0;
+    public static final int DETAIL_FEWER_DOTS = 1;
+    public static final int DETAIL_DOT_POINTS = 2;
+    public static final int DETAIL_POINTS = 3;
+
+    // The radix sort takes a byte of the depth at a time
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX = 1 << RADIX_BITS;
+
+    // Fewer circles than this are sorted by insertion instead
+    private static final int INSERTION_SORT_MAX = 32;
+
+    // Java2D draws ovals smaller than this as nothing, or as odd shapes
+    private static final int MIN_OVAL = 2;
+
+    // At DETAIL_POINTS, bodies smaller than this are plotted as points
+    private static final int POINT_BODY_MAX = 8;
+
+    private final SpriteCache sprites;
+    private final Projection projection;
+
+    // The number of each row's color, kept from one frame to the next and
+    // only looked up again when the row's color name changes
+    private String[] rowColorName = new String[0];
+    private int[] rowColor = new int[0];
+
+    // How the view is placed
+    private double zoom = 1;
+    private int dWindowX, dWindowY;
+
+    // Whether to draw with the TileRasterizer, and what it and the trail layer
+    // clear the frame to. Java2D draws over whatever is there already
+    private volatile boolean tiled = false;
+    private volatile Color background = Color.WHITE;
+    private volatile int detail = DETAIL_FULL;
+    private final TileRasterizer rasterizer = new TileRasterizer();
+
+    // The size of the area being drawn on
+    private int width, height;
+
+    // Every circle to draw this frame, as the corner and size of the box
+    // around it on the screen
+    private int count;
+    private int[] itemX = new int[0], itemY = new int[0], itemSize = new int[0];
+    private int[] itemColor = new int[0];
+
+    // How far back each circle is, as bits that sort as unsigned ints, and
+    // the order to draw them in. The copies are for the radix sort to move
+    // them back and forth between
+    private int[] depth = new int[0], depthCopy = new int[0];
+    private int[] order = new int[0], orderCopy = new int[0];
+    private final int[] buckets = new int[RADIX];
+
+    // Draws everything instead when the path mode is density
+    private final DensityMap densityMap = new DensityMap();
+
+    // The trails drawn as lines, kept between frames
+    private final TrailLayer trailLayer = new TrailLayer();
+
+    /**
+     * @param colors The color for each color name
+     * @param zZoomBase How much bigger things get for every unit nearer they
+     * are
+     */
+    public Renderer(Map<String, Color> colors, double zZoomBase) {
+        this.sprites = new SpriteCache(colors);
+        this.projection = new Projection(zZoomBase);
+    }
+
+    /**
+     * @param zoom How many pixels one unit of space is
+     * @param dWindowX How far the view is panned across
+     * @param dWindowY How far the view is panned down
+     */
+    public void setView(double zoom, int dWindowX, int dWindowY) {
+        this.zoom = zoom;
+        this.dWindowX = dWindowX;
+        this.dWindowY = dWindowY;
+    }
+
+    public boolean isTiled() {
+        return tiled;
+    }
+
+    /**
+     * @param tiled Whether to draw with the TileRasterizer instead of Java2D.
+     * This can be changed from any thread, and takes effect from the next
+     * frame
+     */
+    public void setTiled(boolean tiled) {
+        this.tiled = tiled;
+    }
+
+    /**
+     * @param background What the TileRasterizer and the trail layer clear
+     * the frame to
+     */
+    public void setBackground(Color background) {
+        this.background = background;
+    }
+
+    public int getDetail() {
+        return detail;
+    }
+
+    /**
+     * @param detail How much to leave out, from DETAIL_FULL to DETAIL_POINTS.
+     * This can be changed from any thread, and takes effect from the next
+     * frame
+     */
+    public void setDetail(int detail) {
+        this.detail = detail;
+    }
+
+    /**
+     * Draw a frame
+     * @param g Where to draw
+     * @param world What to draw
+     * @param width Width of the area drawn on
+     * @param height Height of the area drawn on
+     * @param pathMode How trails are drawn, as in SimulationEngine
+     */
+    public void render(Graphics g, WorldSnapshot world, int width, int height, int pathMode) {
+        this.width = width;
+        this.height = height;
+        count = 0;
+
+        projection.setView(zoom, dWindowX, dWindowY, width, height);
+        projection.project(world, pathMode == SimulationEngine.PATHS_DOTS);
+
+        if (pathMode != SimulationEngine.PATHS_LINES) {
+            trailLayer.invalidate();
+        }
+        if (pathMode == SimulationEngine.PATHS_DENSITY) {
+            densityMap.render(g, world, projection);
+            return;
+        }
+
+        // Lines are drawn on the trail layer, which then goes under the
+        // circles
+        boolean tiled = this.tiled;
+        int[] base = null;
+        if (pathMode == SimulationEngine.PATHS_LINES) {
+            BufferedImage layer = trailLayer.update(world, projection, background.getRGB());
+            if (tiled) {
+                base = trailLayer.getPixels();
+            } else {
+                g.drawImage(layer, 0, 0, null);
+            }
+        }
+        if (tiled) {
+            rasterizer.begin(width, height, background.getRGB(), base);
+        }
+
+        Projection p = projection;
+        int detail = this.detail;
+        int pointBelow = detail >= DETAIL_POINTS ? POINT_BODY_MAX : 0;
+        for (int j = 0; j < world.size; j++) {
+            addItem(p.bodyX[j], p.bodyY[j], p.bodyR[j], p.bodyDepth[j], colorOf(world, j), pointBelow);
+        }
+
+        if (pathMode == SimulationEngine.PATHS_DOTS) {
+            // Dots are drawn the size of the body, unless the detail is turned
+            // down
+            int dotColor = sprites.indexOf("Blue");
+            int stride = detail >= DETAIL_DOT_POINTS ? 4 : detail >= DETAIL_FEWER_DOTS ? 2 : 1;
+            pointBelow = detail >= DETAIL_DOT_POINTS ? Integer.MAX_VALUE : 0;
+            for (int j = 0; j < world.size; j++) {
+                int start = p.pointStart[j];
+                for (int k = start; k < start + p.pointCount[j]; k += stride) {
+                    addItem(p.pointX[k], p.pointY[k], p.pointR[k], p.pointDepth[k], dotColor, pointBelow);
+                }
+            }
+        }
+
+        // Sort from the back to the front. Ties keep the order they were
+        // added in
+        for (int k = 0; k < count; k++) {
+            order[k] = k;
+        }
+        sortByDepth();
+
+        if (tiled) {
+            for (int k = 0; k < count; k++) {
+                int i = order[k];
+                rasterizer.addCircle(itemX[i], itemY[i], itemSize[i], sprites.getColor(itemColor[i]).getRGB());
+            }
+            rasterizer.finish(g);
+            return;
+        }
+
+        int color = -2;
+        for (int k = 0; k < count; k++) {
+            int i = order[k];
+            int size = itemSize[i];
+            BufferedImage sprite = sprites.getSprite(itemColor[i], size);
+            if (size >= MIN_OVAL && sprite != null) {
+                g.drawImage(sprite, itemX[i], itemY[i], null);
+                continue;
+            }
+
+            if (itemColor[i] != color) {
+                color = itemColor[i];
+                g.setColor(sprites.getColor(color));
+            }
+            if (size < MIN_OVAL) {
+                // Too small to draw as an oval, so plot its centre
+                g.fillRect(itemX[i] + size/2, itemY[i] + size/2, 1, 1);
+            } else {
+                g.fillOval(itemX[i], itemY[i], size, size);
+            }
+        }
+    }
+
+    /**
+     * Add a circle to the ones to draw if any of it is in view
+     * @param x Across the screen to its centre
+     * @param y Down the screen to its centre
+     * @param r Its radius in pixels
+     * @param z How far back it is, as from the Projection
+     * @param pointBelow Circles smaller than this are plotted as the one
+     * pixel at their centre
+     */
+    private void addItem(float x, float y, float r, int z, int color, int pointBelow) {
+        int left = (int) (x - r);
+        int top = (int) (y - r);
+        int size = (int) (2*r);
+        if (size < pointBelow) {
+            left = (int) x;
+            top = (int) y;
+            size = 0;
+        }
+        if (left + size < 0 || left > width || top + size < 0 || top > height) {
+            return;
+        }
+
+        if (count == itemX.length) {
+            int capacity = Math.max(64, 2*count);
+            itemX = Arrays.copyOf(itemX, capacity);
+            itemY = Arrays.copyOf(itemY, capacity);
+            itemSize = Arrays.copyOf(itemSize, capacity);
+            itemColor = Arrays.copyOf(itemColor, capacity);
+            depth = Arrays.copyOf(depth, capacity);
+            depthCopy = new int[capacity];
+            order = new int[capacity];
+            orderCopy = new int[capacity];
+        }
+        itemX[count] = left;
+        itemY[count] = top;
+        itemSize[count] = size;
+        itemColor[count] = color;
+        depth[count] = z;
+        count++;
+    }
+
+    /**
+     * @return The number of the color of a row of the snapshot
+     */
+    private int colorOf(WorldSnapshot world, int row) {
+        if (rowColor.length < world.size) {
+            int capacity = Math.max(world.size, 2*rowColor.length);
+            rowColorName = Arrays.copyOf(rowColorName, capacity);
+            rowColor = Arrays.copyOf(rowColor, capacity);
+        }
+        String name = world.color[row];
+        if (name != rowColorName[row]) {
+            rowColorName[row] = name;
+            rowColor[row] = sprites.indexOf(name);
+        }
+        return rowColor[row];
+    }
+
+    /**
+     * Sort order by depth, smallest first, keeping ties in the order they
+     * are in. This is a least significant digit first radix sort, which skips
+     * any byte that is the same for every depth
+     */
+    private void sortByDepth() {
+        if (count <= INSERTION_SORT_MAX) {
+            insertionSort();
+            return;
+        }
+
+        int[] depth = this.depth, order = this.order;
+        int[] depthTo = depthCopy, orderTo = orderCopy;
+        for (int shift = 0; shift < 32; shift += RADIX_BITS) {
+            Arrays.fill(buckets, 0);
+            for (int k = 0; k < count; k++) {
+                buckets[(depth[k] >>> shift) & (RADIX-1)]++;
+            }
+            if (buckets[(depth[0] >>> shift) & (RADIX-1)] == count) {
+                continue;
+            }
+
+            // Where each bucket starts
+            int start = 0;
+            for (int b = 0; b < RADIX; b++) {
+                int size = buckets[b];
+                buckets[b] = start;
+                start += size;
+            }
+            for (int k = 0; k < count; k++) {
+                int to = buckets[(depth[k] >>> shift) & (RADIX-1)]++;
+                depthTo[to] = depth[k];
+                orderTo[to] = order[k];
+            }
+
+            int[] swap = depth;
+            depth = depthTo;
+            depthTo = swap;
+            swap = order;
+            order = orderTo;
+            orderTo = swap;
+        }
+
+        // Keep the sorted ones as the arrays that are drawn from
+        this.depth = depth;
+        this.order = order;
+        depthCopy = depthTo;
+        orderCopy = orderTo;
+    }
+
+    private void insertionSort() {
+        for (int k = 1; k < count; k++) {
+            int d = depth[k], i = order[k];
+            int j = k-1;
+            // Flipping the top bit compares them as unsigned
+            while (j >= 0 && (depth[j] ^ Integer.MIN_VALUE) > (d ^ Integer.MIN_VALUE)) {
+                depth[j+1] = depth[j];
+                order[j+1] = order[j];
+                j--;
+            }
+            depth[j+1] = d;
+            order[j+1] = i;
+        }
+    }
+}
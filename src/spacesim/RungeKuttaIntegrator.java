@@ -0,0 +1,108 @@
+/**
+ * The classic fourth order Runge-Kutta method, applied to the whole system so
+ * that every stage sees the other bodies at that stage's positions. Costs four
+ * force evaluations per step
+ */
+
+package spacesim;
+
+import java.util.Arrays;
+
+public class RungeKuttaIntegrator extends Integrator {
+    private static final double[] WEIGHTS = {1, 2, 2, 1};
+    private static final double[] NEXT_STAGE = {0.5, 0.5, 1};
+    
+    // Position and velocity of the current stage, and the weighted sums of the
+    // derivatives so far
+    private double[] px = new double[0], py = new double[0], pz = new double[0];
+    private double[] kx = new double[0], ky = new double[0], kz = new double[0];
+    private double[] sx = new double[0], sy = new double[0], sz = new double[0];
+    private double[] svx = new double[0], svy = new double[0], svz = new double[0];
+    
+    @Override
+    public String getName() {
+        return "Runge-Kutta 4";
+    }
+    
+    @Override
+    public void step(BodyStore bodies, ForceSolver solver, ForceLaw forceLaw, double dt) {
+        int n = bodies.size;
+        ensureCapacity(n);
+        double[] x = bodies.x, y = bodies.y, z = bodies.z;
+        double[] vx = bodies.vx, vy = bodies.vy, vz = bodies.vz;
+        boolean[] moveable = bodies.moveable;
+        
+        System.arraycopy(x, 0, px, 0, n);
+        System.arraycopy(y, 0, py, 0, n);
+        System.arraycopy(z, 0, pz, 0, n);
+        System.arraycopy(vx, 0, kx, 0, n);
+        System.arraycopy(vy, 0, ky, 0, n);
+        System.arraycopy(vz, 0, kz, 0, n);
+        Arrays.fill(sx, 0, n, 0);
+        Arrays.fill(sy, 0, n, 0);
+        Arrays.fill(sz, 0, n, 0);
+        Arrays.fill(svx, 0, n, 0);
+        Arrays.fill(svy, 0, n, 0);
+        Arrays.fill(svz, 0, n, 0);
+        
+        for (int stage = 0; stage < 4; stage++) {
+            solver.accelerations(bodies, forceLaw, px, py, pz, ax, ay, az);
+            
+            double w = WEIGHTS[stage];
+            double h = stage < 3 ? NEXT_STAGE[stage]*dt : 0;
+            for (int i = 0; i < n; i++) {
+                if (moveable[i]) {
+                    sx[i] += w*kx[i];
+                    sy[i] += w*ky[i];
+                    sz[i] += w*kz[i];
+                    svx[i] += w*ax[i];
+                    svy[i] += w*ay[i];
+                    svz[i] += w*az[i];
+                    
+                    if (stage < 3) {
+                        // The next stage is at this stage's velocity, starting
+                        // from the beginning of the step
+                        px[i] = x[i] + kx[i]*h;
+                        py[i] = y[i] + ky[i]*h;
+                        pz[i] = z[i] + kz[i]*h;
+                        kx[i] = vx[i] + ax[i]*h;
+                        ky[i] = vy[i] + ay[i]*h;
+                        kz[i] = vz[i] + az[i]*h;
+                    }
+                }
+            }
+        }
+        
+        for (int i = 0; i < n; i++) {
+            if (moveable[i]) {
+                x[i] += sx[i]*dt/6.0;
+                y[i] += sy[i]*dt/6.0;
+                z[i] += sz[i]*dt/6.0;
+                vx[i] += svx[i]*dt/6.0;
+                vy[i] += svy[i]*dt/6.0;
+                vz[i] += svz[i]*dt/6.0;
+            }
+        }
+        moved(bodies);
+    }
+    
+    @Override
+    protected void ensureCapacity(int n) {
+        super.ensureCapacity(n);
+        if (px.length < n) {
+            int capacity = ax.length;
+            px = Arrays.copyOf(px, capacity);
+            py = Arrays.copyOf(py, capacity);
+            pz = Arrays.copyOf(pz, capacity);
+            kx = Arrays.copyOf(kx, capacity);
+            ky = Arrays.copyOf(ky, capacity);
+            kz = Arrays.copyOf(kz, capacity);
+            sx = Arrays.copyOf(sx, capacity);
+            sy = Arrays.copyOf(sy, capacity);
+            sz = Arrays.copyOf(sz, capacity);
+            svx = Arrays.copyOf(svx, capacity);
+            svy = Arrays.copyOf(svy, capacity);
+            svz = Arrays.copyOf(svz, capacity);
+        }
+    }
+}
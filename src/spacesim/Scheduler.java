@@ -0,0 +1,208 @@
+/**
+ * Runs the simulation in real time on its own thread. Every tick of wall clock
+ * time it owes the simulation as many steps of the engine's fixed dt as the
+ * speed setting asks for, and takes them one after another. If the steps
+ * take longer than the tick, the rest are dropped rather than saved up, so
+ * the simulation runs slower than asked instead of falling further and
+ * further behind.
+ *
+ * The thread is made once and sleeps while paused, so it can be started and
+ * paused any number of times.
+ */
+
+package spacesim;
+
+import java.util.ArrayList;
+
+public class Scheduler implements Runnable {
+    // How often the steps per second are worked out
+    private static final long RATE_WINDOW = 1000000000L;
+
+    /**
+     * Told about every tick, on the physics thread
+     */
+    public interface Listener {
+        /**
+         * @param removed The bodies removed during the tick's steps. The list
+         * is reused, so it must be copied to keep it
+         */
+        public void ticked(ArrayList<Body> removed);
+    }
+
+    private final SimulationEngine engine;
+    private final Listener listener;
+    private final long tickNanos;
+
+    private volatile int speed = 1;
+    private volatile int maxSteps = Integer.MAX_VALUE;
+    private volatile boolean running = false;
+    private Thread thread;
+    // Whether the thread is waiting to be started rather than in a tick
+    private boolean idle = true;
+
+    private final ArrayList<Body> removed = new ArrayList<>();
+    private volatile double stepsPerSecond = 0;
+    private volatile long droppedSteps = 0;
+    private volatile long stepNanos = 0;
+
+    /**
+     * @param engine The simulation to step
+     * @param tickMillis How much wall clock time a tick is
+     * @param listener Told after each tick's steps
+     */
+    public Scheduler(SimulationEngine engine, int tickMillis, Listener listener) {
+        this.engine = engine;
+        this.tickNanos = tickMillis*1000000L;
+        this.listener = listener;
+    }
+
+    public int getSpeed() {
+        return speed;
+    }
+
+    /**
+     * @param speed How many steps to take every tick
+     */
+    public void setSpeed(int speed) {
+        if (speed < 1) {
+            throw new IllegalArgumentException("Speed must be at least 1: "+speed);
+        }
+        this.speed = speed;
+    }
+
+    public int getMaxSteps() {
+        return maxSteps;
+    }
+
+    /**
+     * Take fewer steps each tick than the speed asks for, to leave time for
+     * drawing. The steps left out are not counted as dropped
+     * @param maxSteps The most steps to take in a tick, at least 1
+     */
+    public void setMaxSteps(int maxSteps) {
+        if (maxSteps < 1) {
+            throw new IllegalArgumentException("Max steps must be at least 1: "+maxSteps);
+        }
+        this.maxSteps = maxSteps;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return How many steps a second were taken, over the last second the
+     * simulation was running
+     */
+    public double getStepsPerSecond() {
+        return stepsPerSecond;
+    }
+
+    /**
+     * @return How many steps have been dropped because they did not fit in
+     * their tick
+     */
+    public long getDroppedSteps() {
+        return droppedSteps;
+    }
+
+    /**
+     * @return How long has been spent taking steps altogether, in
+     * nanoseconds
+     */
+    public long getStepNanos() {
+        return stepNanos;
+    }
+
+    public synchronized void start() {
+        running = true;
+        if (thread == null) {
+            thread = new Thread(this, "Physics");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Stop stepping. A tick that has already begun is finished, and this waits
+     * for it, so nothing is stepped or published once it returns
+     */
+    public synchronized void pause() {
+        running = false;
+        while (!idle && Thread.currentThread() != thread) {
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                synchronized (this) {
+                    idle = true;
+                    notifyAll();
+                    while (!running) {
+                        wait();
+                    }
+                    idle = false;
+                }
+                runWhileRunning();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // Do not leave pause() waiting on a thread that has died
+            synchronized (this) {
+                idle = true;
+                notifyAll();
+            }
+        }
+    }
+
+    private void runWhileRunning() throws InterruptedException {
+        long next = System.nanoTime();
+        long windowStart = next, windowSteps = 0;
+
+        while (running) {
+            long deadline = next + tickNanos;
+            int owed = Math.min(speed, maxSteps);
+            removed.clear();
+            long stepStart = System.nanoTime();
+            while (owed > 0 && running) {
+                removed.addAll(engine.step());
+                owed--;
+                windowSteps++;
+                if (System.nanoTime() > deadline) {
+                    break;
+                }
+            }
+            if (running) {
+                droppedSteps += owed;
+            }
+            stepNanos += System.nanoTime() - stepStart;
+            listener.ticked(removed);
+
+            long now = System.nanoTime();
+            if (now - windowStart >= RATE_WINDOW) {
+                stepsPerSecond = windowSteps*1e9/(now - windowStart);
+                windowStart = now;
+                windowSteps = 0;
+            }
+
+            // Wait for the next tick, without catching up on any that were
+            // missed
+            next = Math.max(deadline, now);
+            long sleep = next - System.nanoTime();
+            if (sleep > 0 && running) {
+                Thread.sleep(sleep/1000000, (int) (sleep%1000000));
+            }
+        }
+        stepsPerSecond = 0;
+    }
+}
@@ -0,0 +1,286 @@
+/**
+ * The simulation itself, without any GUI. It owns the bodies and the time, and
+ * runs the step pipeline: merging bodies that collide, removing the ones that
+ * leave the cube, recording the paths, and moving everything forward in time.
+ * Every step moves forward by the same dt; running faster means taking more
+ * steps, which is up to the Scheduler. The GUI sets the options here and draws
+ * what comes out, and the same engine can be run headless from HeadlessRun or
+ * the benchmarks.
+ *
+ * Stepping, and any change to the bodies, happens while holding the lock on
+ * the body store. The GUI never reads the bodies while they are being stepped,
+ * but instead reads the latest WorldSnapshot, which the physics publishes
+ * after each step without having to wait for the GUI. Each reader gets the
+ * snapshots through its own SnapshotChannel: the GUI through getSnapshot, and
+ * anything else, like a render thread, through a channel it opens.
+ */
+
+package spacesim;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class SimulationEngine {
+    public static final double GRAV_CONST = .5; // Was 0.5
+
+    // How far the clock moves each step, in milliseconds
+    public static final int STEP_MILLIS = 5;
+
+    // What to record the paths of the bodies as. Density records none, and
+    // draws a map of where the mass is instead of the bodies
+    public static final int PATHS_NONE = 0;
+    public static final int PATHS_DOTS = 1;
+    public static final int PATHS_LINES = 2;
+    public static final int PATHS_DENSITY = 3;
+
+    // How far back a trail drawn as lines reaches, in milliseconds of the
+    // clock. Its points are kept where the path bends rather than every so
+    // often, so it is a time instead of a number of points
+    public static final long LINE_TRAIL_MILLIS = 20*Body.TRAIL_LENGTH;
+
+    // The most points a line trail can need. In a tight bend every step is
+    // kept, so that is one for each step of the trail's time and its newest,
+    // and the one just older than the trail that expire leaves. A trail only
+    // grows to this while it needs to, so the ring always reaches all the way
+    // back, however tightly the body turns
+    public static final int LINE_TRAIL_POINTS = (int) (LINE_TRAIL_MILLIS/STEP_MILLIS) + 2;
+
+    private final BodyStore bodies = new BodyStore();
+    private final Collisions collisions = new Collisions();
+
+    private double t = 0, dt = 0.5;
+    private long steps = 0;
+    private int cubeL = 10000;
+
+    // Options that can be changed while running, and are only read once a step
+    private volatile int pathMode = PATHS_NONE;
+    private volatile double trailTolerance = 0.5;
+    private volatile ForceLaw forceLaw = ForceLaw.INVERSE_SQUARE;
+    private volatile ForceSolver forceSolver = new DirectSolver();
+    private volatile Integrator integrator = new RungeKuttaIntegrator();
+
+    // The GUI's snapshots, and those of every other reader
+    private final SnapshotChannel view = new SnapshotChannel();
+    private final CopyOnWriteArrayList<SnapshotChannel> channels = new CopyOnWriteArrayList<>();
+    private long epoch = 0;
+
+    public BodyStore getBodies() {
+        return bodies;
+    }
+
+    /**
+     * @return The simulated time
+     */
+    public double getTime() {
+        return t;
+    }
+
+    public double getDt() {
+        return dt;
+    }
+
+    public void setDt(double dt) {
+        this.dt = dt;
+    }
+
+    public long getSteps() {
+        return steps;
+    }
+
+    /**
+     * @return The time shown on the clock, in milliseconds
+     */
+    public long getClock() {
+        return steps*STEP_MILLIS;
+    }
+
+    public int getCubeL() {
+        return cubeL;
+    }
+
+    public void setCubeL(int cubeL) {
+        this.cubeL = cubeL;
+    }
+
+    public int getPathMode() {
+        return pathMode;
+    }
+
+    /**
+     * @param pathMode PATHS_NONE, PATHS_DOTS, PATHS_LINES or PATHS_DENSITY
+     */
+    public void setPathMode(int pathMode) {
+        this.pathMode = pathMode;
+    }
+
+    public double getTrailTolerance() {
+        return trailTolerance;
+    }
+
+    /**
+     * @param trailTolerance How far a trail drawn as lines may stray from
+     * where the body was, in units of the screen plane. Half a pixel over the
+     * zoom keeps the lines looking the same with as few points as that allows
+     */
+    public void setTrailTolerance(double trailTolerance) {
+        this.trailTolerance = trailTolerance;
+    }
+
+    public ForceLaw getForceLaw() {
+        return forceLaw;
+    }
+
+    public void setForceLaw(ForceLaw forceLaw) {
+        this.forceLaw = forceLaw;
+    }
+
+    public ForceSolver getForceSolver() {
+        return forceSolver;
+    }
+
+    public void setForceSolver(ForceSolver forceSolver) {
+        this.forceSolver = forceSolver;
+    }
+
+    public Integrator getIntegrator() {
+        return integrator;
+    }
+
+    public void setIntegrator(Integrator integrator) {
+        this.integrator = integrator;
+    }
+
+    /**
+     * Perform the time step
+     * @return The bodies that were removed, either merged into another or
+     * gone out of bounds. The list is reused by the next step
+     */
+    public ArrayList<Body> step() {
+        synchronized (bodies) {
+            return stepBodies();
+        }
+    }
+
+    private ArrayList<Body> stepBodies() {
+        // Set up the times
+        steps++;
+        t += dt;
+        long clock = getClock();
+
+        // Merge bodies that touch, and find those that have left the cube
+        ArrayList<Body> toBeRemoved = collisions.collide(bodies, cubeL);
+
+        // Remove all that need to be removed
+        for (int i = 0; i < toBeRemoved.size(); i++) {
+            bodies.remove(toBeRemoved.get(i));
+        }
+
+        // Update the paths
+        int pathMode = this.pathMode;
+        if (pathMode == PATHS_LINES) {
+            // Every step is looked at for lines, but only kept where the
+            // path bends, so fast bends are smooth and straight runs cheap
+            double tolerance = trailTolerance;
+            for (int i = 0; i < bodies.size; i++) {
+                if (bodies.moveable[i]) {
+                    Trail trail = bodies.bodies[i].trail;
+                    trail.addSimplified(bodies.x[i], bodies.y[i], bodies.z[i], clock, tolerance);
+                    trail.expire(clock - LINE_TRAIL_MILLIS);
+                }
+            }
+        } else if (pathMode == PATHS_DOTS && clock % 100 == 0) {
+            // Dots are kept evenly in time, so their spacing shows the speed
+            for (int i = 0; i < bodies.size; i++) {
+                if (bodies.moveable[i]) {
+                    bodies.bodies[i].addPos();
+                }
+            }
+        }
+
+        // Calculate the next position. The solver and integrator are only read
+        // once, so they can be switched while running
+        integrator.step(bodies, forceSolver, forceLaw, dt);
+
+        return toBeRemoved;
+    }
+
+    /**
+     * Copy the current state into a snapshot and make it the newest one. This
+     * can be called from any thread
+     */
+    public void publish() {
+        synchronized (bodies) {
+            epoch++;
+            view.publish(this, epoch);
+            for (SnapshotChannel channel : channels) {
+                channel.publish(this, epoch);
+            }
+        }
+    }
+
+    /**
+     * Get the newest published snapshot. It stays the same until this is
+     * called again, so this must only ever be called from one thread, which
+     * for the GUI is the event dispatch thread
+     */
+    public WorldSnapshot getSnapshot() {
+        return view.getSnapshot();
+    }
+
+    /**
+     * Open a channel for another thread to read snapshots from. It gets every
+     * snapshot published from now on
+     */
+    public SnapshotChannel openChannel() {
+        SnapshotChannel channel = new SnapshotChannel();
+        channels.add(channel);
+        return channel;
+    }
+
+    /**
+     * Stop publishing to a channel
+     */
+    public void closeChannel(SnapshotChannel channel) {
+        channels.remove(channel);
+    }
+
+    /**
+     * A sun with planets spread around it on roughly circular orbits
+     * @param n Number of bodies, including the sun
+     * @param seed The same seed always gives the same bodies
+     */
+    public static BodyStore randomBodies(int n, long seed) {
+        BodyStore bodies = new BodyStore(n);
+        addRandomBodies(bodies, n, seed);
+        return bodies;
+    }
+
+    /**
+     * Add a sun and planets around it to the simulation
+     * @param n Number of bodies, including the sun
+     * @param seed The same seed always gives the same bodies
+     */
+    public void addRandomBodies(int n, long seed) {
+        addRandomBodies(bodies, n, seed);
+    }
+
+    private static void addRandomBodies(BodyStore bodies, int n, long seed) {
+        Random random = new Random(seed);
+        addBody(bodies, new Body("Sun", 500, .001, 0, 0, 0, 0, 0, 0));
+        for (int i = 1; i < n; i++) {
+            double x = random.nextGaussian()*2000;
+            double y = random.nextGaussian()*2000;
+            double z = random.nextGaussian()*500;
+            double r = Math.sqrt(x*x + y*y + z*z);
+            double v = Math.sqrt(GRAV_CONST*500/r);
+            addBody(bodies, new Body("Planet", random.nextDouble()*0.29+0.01, random.nextDouble()*0.00004+0.00008,
+                    x, y, z, -v*y/r, v*x/r, 0));
+        }
+    }
+
+    private static void addBody(BodyStore bodies, Body b) {
+        b.setRadiusFromMass();
+        bodies.add(b);
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * Hands snapshots of the simulation from the physics to one reader. There are
+ * three snapshots: the one being filled, the newest finished one, and the one
+ * being read. Finished snapshots are passed between the two sides with atomic
+ * swaps, so neither side ever waits on the other. Every reader has its own
+ * channel, so the GUI and a render thread can each hold on to a snapshot for
+ * as long as they need it.
+ */
+
+package spacesim;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+public class SnapshotChannel {
+    // The snapshot being filled, the newest one not yet taken by the reader,
+    // one the reader is done with, and the one being read
+    private WorldSnapshot back = new WorldSnapshot();
+    private final AtomicReference<WorldSnapshot> ready = new AtomicReference<>();
+    private final AtomicReference<WorldSnapshot> free = new AtomicReference<>(new WorldSnapshot());
+    private WorldSnapshot front = new WorldSnapshot();
+
+    /**
+     * Copy the engine's current state into a snapshot and make it the newest
+     * one. Only ever called by the engine, while holding the lock on its bodies
+     */
+    void publish(SimulationEngine engine, long epoch) {
+        back.copy(engine, epoch);
+        WorldSnapshot unread = ready.getAndSet(back);
+        if (unread != null) {
+            // The reader never took the last one, so it can be reused
+            back = unread;
+        } else {
+            back = free.getAndSet(null);
+            if (back == null) {
+                // The reader has taken the last one but not yet given back
+                // the one before
+                back = new WorldSnapshot();
+            }
+        }
+    }
+
+    /**
+     * Get the newest published snapshot. It stays the same until this is
+     * called again, so this must only ever be called from one thread
+     */
+    public WorldSnapshot getSnapshot() {
+        WorldSnapshot newest = ready.getAndSet(null);
+        if (newest != null) {
+            free.set(front);
+            front = newest;
+        }
+        return front;
+    }
+}
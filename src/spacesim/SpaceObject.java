@@ -5,34 +5,12 @@
 
 package spacesim;
 
-public class SpaceObject {
+public abstract class SpaceObject {
     public String type;
-    public State state;
-    public double r;
     public String color;
     
-    public class State {
-        public double x, y, z, vx, vy, vz;
-        
-        /**
-         * Generates a state in space from the initial position and velocity
-         */
-        public State(double x, double y, double z, double vx, double vy, double vz) {
-            this.x = x;
-            this.y = y;
-            this.z = z;
-            this.vx = vx;
-            this.vy = vy;
-            this.vz = vz;
-        }
-        
-        public State copy() {
-            return new State(x, y, z, vx, vy, vz);
-        }
-        
-        @Override
-        public String toString() {
-            return "x: "+x+", y: "+y+", z: "+z+", vx: "+vx+", vy: "+vy+", vz: "+vz;
-        }
-    }
+    public abstract double getX();
+    public abstract double getY();
+    public abstract double getZ();
+    public abstract double getR();
 }
@@ -1,6 +1,7 @@
 /**
- * The main SpaceSim file, which contains the main method, defines the GUI, and
- * performs the time step.
+ * The main SpaceSim file, which contains the main method and defines the GUI.
+ * The physics itself is done by SimulationEngine, which the GUI drives and
+ * draws.
  * 
  * The functionalities that currently exist are:
  * Start/pause
@@ -22,53 +23,95 @@ import java.awt.Container;
 import java.awt.FocusTraversalPolicy;
 import java.awt.Graphics;
 import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.TimeZone;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.swing.AbstractAction;
+import javax.swing.Box;
+import javax.swing.ButtonGroup;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JComponent;
+import javax.swing.JLabel;
 import javax.swing.JLayeredPane;
+import javax.swing.JMenu;
+import javax.swing.JMenuBar;
+import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JRadioButtonMenuItem;
 import javax.swing.JRootPane;
 import javax.swing.JTabbedPane;
 import javax.swing.JToggleButton;
 import javax.swing.KeyStroke;
-import spacesim.Body.Shadow;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
 
 public class SpaceSim extends javax.swing.JFrame {
-    public static double GRAV_CONST = .5; // Was 0.5 
     private double massOfSun = 500; // Was 10000 to be realistic, 500
     private Body sun;
-    public CopyOnWriteArrayList<Body> bodies;
     
-    private double t=0, dt=0.5;
+    // The simulation being shown. bodies is the engine's store
+    private final SimulationEngine engine = new SimulationEngine();
+    public final BodyStore bodies = engine.getBodies();
+    
     private Date simDate;
-    private TimerTask gameTimerTask;
-    private int calcFreq = 5;
-    private int loopTime = 0;
+    private int calcFreq = SimulationEngine.STEP_MILLIS;
+    
+    // The physics runs on its own thread, and only talks to the GUI through
+    // snapshots and the bodies it has removed
+    private final Scheduler scheduler = new Scheduler(engine, calcFreq, new Scheduler.Listener() {
+        @Override
+        public void ticked(ArrayList<Body> removed) {
+            step(removed);
+        }
+    });
     
-    private int cubeL = 10000;
+    // Turns the detail and the physics down when frames take too long
+    private final FrameGovernor governor = new FrameGovernor(scheduler);
+    private final ConcurrentLinkedQueue<Body> removedBodies = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean viewUpdatePending = new AtomicBoolean(false);
+    private long shownClock = -1;
+    private final JLabel statusLabel = new JLabel();
+    private JMenu runMenu;
+    
+    // Whether a batch run is stepping the bodies on a background thread.
+    // Nothing is published or drawn while it is, since the bodies are part
+    // way through the run
+    private boolean batchRunning = false;
+    
+    // Draws the main panel on its own thread, when active rendering is on
+    private RenderLoop renderLoop;
     
     private int clickX, clickY;
     private int dWindowX, dWindowY;
     private double zZoomBase = 1.001;
     //private double zZoomPower = 1.0/3.0;
     
+    // Finds the body under the mouse, from where the bodies are on the screen
+    private final Projection picker = new Projection(zZoomBase);
+    
     private Body selectedBody;
     private String[] names = Names.names;
     private int nameCnt = 0;
     private int sunCnt = 1;
     
-    public int forceLaw = -2;
+    private DirectSolver directSolver = new DirectSolver();
+    private SymmetricSolver symmetricSolver = new SymmetricSolver();
+    private BarnesHutSolver barnesHutSolver = new BarnesHutSolver(0.5);
+    
+    private Integrator[] integrators = new Integrator[] {new RungeKuttaIntegrator(),
+            new LeapfrogIntegrator(), new VelocityVerletIntegrator(), new YoshidaIntegrator(),
+            new HermiteIntegrator()};
     
     private HashMap<String, Color> colors = Names.generateColors();
     
@@ -78,8 +121,14 @@ public class SpaceSim extends javax.swing.JFrame {
     public SpaceSim() {
         TimeZone.setDefault(TimeZone.getTimeZone("GMT"));
         initComponents();
+        renderLoop = new RenderLoop(engine, mainPanel, new Renderer(colors, zZoomBase));
+        renderLoop.setGovernor(governor);
+        governor.addRenderer(renderLoop.getRenderer());
+        governor.addRenderer(mainPanel.renderer);
+        updateTrailTolerance();
         
-        bodies = new CopyOnWriteArrayList<>();
+        engine.setForceSolver(directSolver);
+        engine.setIntegrator(integrators[0]);
         addBody("Sun", massOfSun, .001, 0, 0, 0, 0, 0, 0);
         sun = bodies.get(0);
         
@@ -92,6 +141,16 @@ public class SpaceSim extends javax.swing.JFrame {
         setEditor(bodies.get(0));
         simDate = new Date(0);
         setupKeyMaps();
+        setupMenus();
+        renderLoop.start();
+        
+        // The status only needs to change a couple of times a second
+        new Timer(500, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                updateStatus();
+            }
+        }).start();
     }
     
     /**
@@ -202,139 +261,393 @@ public class SpaceSim extends javax.swing.JFrame {
     }
     
     /**
-     * Perform the time step
+     * Adds the menu bar, which holds the options that change how the physics
+     * is calculated:
+     * Gravity - exact direct summation, exact summation visiting each pair
+     * once, or the Barnes-Hut tree, the tree's opening angle, and how many
+     * threads share the work
+     * Integrator - how the bodies are moved forward in time
+     * Run - jump ahead to a later time, or by a number of steps, as fast as
+     * possible
+     * The right of the bar shows how many steps a second are being taken
      */
-    private void step() {
-        // Set up the times
-        loopTime += calcFreq;
-        t += dt*speedSlider.getValue();
-        simDate.setTime(loopTime);
+    private void setupMenus() {
+        JMenuBar menuBar = new JMenuBar();
         
-        if (loopTime % 250 == 0) {
-            timeField.setValue(simDate);
-        }
+        JMenu gravityMenu = new JMenu("Gravity");
+        ButtonGroup solverGroup = new ButtonGroup();
         
-        mainPanel.repaint();
+        JRadioButtonMenuItem directItem = new JRadioButtonMenuItem("Direct Summation", true);
+        directItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                engine.setForceSolver(directSolver);
+            }
+        });
+        solverGroup.add(directItem);
+        gravityMenu.add(directItem);
         
-        // Check for collisions
-        ArrayList<Body> toBeRemoved = new ArrayList<>();
-        for (Body b1 : bodies) {
-            for (Body b2 : bodies) {
-                if (b1 != b2 && areTouching(b1, b2)) {
-                    Body big = b1.mass > b2.mass ? b1 : b2;
-                    Body small = b1 == big ? b2 : b1;
-                    
-                    if (toBeRemoved.contains(small)) {
-                        continue;
-                    } else {
-                        toBeRemoved.add(small);
+        JRadioButtonMenuItem symmetricItem = new JRadioButtonMenuItem("Symmetric Pairs");
+        symmetricItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                engine.setForceSolver(symmetricSolver);
+            }
+        });
+        solverGroup.add(symmetricItem);
+        gravityMenu.add(symmetricItem);
+        
+        JRadioButtonMenuItem treeItem = new JRadioButtonMenuItem("Barnes-Hut Tree");
+        treeItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                engine.setForceSolver(barnesHutSolver);
+            }
+        });
+        solverGroup.add(treeItem);
+        gravityMenu.add(treeItem);
+        
+        gravityMenu.addSeparator();
+        JMenuItem thetaItem = new JMenuItem("Opening Angle...");
+        thetaItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                String input = JOptionPane.showInputDialog(SpaceSim.this,
+                        "Opening angle (0 is exact, larger is faster):", barnesHutSolver.getTheta());
+                if (input == null) {
+                    return;
+                }
+                try {
+                    double theta = Double.parseDouble(input);
+                    if (theta < 0) {
+                        throw new NumberFormatException();
                     }
-                    
-                    double newvx = (big.state.vx*big.mass+small.state.vx*small.mass)/(big.mass+small.mass);
-                    double newvy = (big.state.vy*big.mass+small.state.vy*small.mass)/(big.mass+small.mass);
-                    double newvz = (big.state.vz*big.mass+small.state.vz*small.mass)/(big.mass+small.mass);
-                    double newden = (big.DENSITY*big.mass+small.DENSITY*small.mass)/(big.mass+small.mass);
-                    big.mass += small.mass;
-                    big.DENSITY = newden;
-                    big.setRadiusFromMass();
-                    big.state.vx = newvx;
-                    big.state.vy = newvy;
-                    big.state.vz = newvz;
+                    barnesHutSolver.setTheta(theta);
+                } catch (NumberFormatException ex) {
+                    JOptionPane.showMessageDialog(null, "The opening angle must be a non-negative number", "Invalid", JOptionPane.INFORMATION_MESSAGE);
                 }
             }
-            
-            // Check for out of bounds
-            if (!toBeRemoved.contains(b1)) {
-                if (Math.abs(b1.state.x) > cubeL || Math.abs(b1.state.y) > cubeL
-                        || Math.abs(b1.state.z) > cubeL/2) {
-                    toBeRemoved.add(b1);
+        });
+        gravityMenu.add(thetaItem);
+        
+        JMenuItem threadsItem = new JMenuItem("Threads...");
+        threadsItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                String input = JOptionPane.showInputDialog(SpaceSim.this,
+                        "Number of threads for calculating gravity and drawing:", Parallel.getThreads());
+                if (input == null) {
+                    return;
+                }
+                try {
+                    Parallel.setThreads(Integer.parseInt(input.trim()));
+                } catch (IllegalArgumentException ex) {
+                    JOptionPane.showMessageDialog(null, "The number of threads must be a positive whole number", "Invalid", JOptionPane.INFORMATION_MESSAGE);
                 }
             }
-        }
+        });
+        gravityMenu.add(threadsItem);
         
-        // Remove all that need to be removed
-        for (Body b : toBeRemoved) {
-            bodies.remove(b);
-            totalBodiesCounter.setText(""+bodies.size());
-            bodiesComboBox.removeItem(b.name);
+        menuBar.add(gravityMenu);
+        
+        JMenu integratorMenu = new JMenu("Integrator");
+        ButtonGroup integratorGroup = new ButtonGroup();
+        for (final Integrator i : integrators) {
+            JRadioButtonMenuItem item = new JRadioButtonMenuItem(i.getName(), i == engine.getIntegrator());
+            item.addActionListener(new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    engine.setIntegrator(i);
+                }
+            });
+            integratorGroup.add(item);
+            integratorMenu.add(item);
         }
+        menuBar.add(integratorMenu);
         
-        // Calculate the next position
-        for (Body b : bodies) {
-            if (b.moveable) {
-                b.nextState.x = b.state.x;
-                b.nextState.y = b.state.y;
-                b.nextState.z = b.state.z;
-                b.nextState.vx = b.state.vx;
-                b.nextState.vy = b.state.vy;
-                b.nextState.vz = b.state.vz;
-                
-                b.updateBody(t, dt*speedSlider.getValue());
-                if (pathsComboBox.getSelectedItem().equals("Lines") && loopTime % 20 == 0) {
-                    b.addPos();
-                } else if (pathsComboBox.getSelectedItem().equals("Dots") && loopTime % 100 == 0) {
-                    b.addPos();
+        runMenu = new JMenu("Run");
+        JMenuItem toTimeItem = new JMenuItem("Run to Time...");
+        toTimeItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                String input = JOptionPane.showInputDialog(SpaceSim.this,
+                        "Simulated time to run to (it is now "+Math.round(engine.getTime())+"):");
+                if (input == null) {
+                    return;
+                }
+                try {
+                    runBatch(BatchRun.toTime(engine, Double.parseDouble(input)));
+                } catch (IllegalArgumentException ex) {
+                    JOptionPane.showMessageDialog(null, "The time must be a number later than now", "Invalid", JOptionPane.INFORMATION_MESSAGE);
                 }
             }
-        }
+        });
+        runMenu.add(toTimeItem);
+        
+        JMenuItem stepsItem = new JMenuItem("Run Steps...");
+        stepsItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                String input = JOptionPane.showInputDialog(SpaceSim.this, "Number of steps to run:");
+                if (input == null) {
+                    return;
+                }
+                try {
+                    runBatch(BatchRun.forSteps(engine, Long.parseLong(input.trim())));
+                } catch (IllegalArgumentException ex) {
+                    JOptionPane.showMessageDialog(null, "The number of steps must be a positive whole number", "Invalid", JOptionPane.INFORMATION_MESSAGE);
+                }
+            }
+        });
+        runMenu.add(stepsItem);
+        menuBar.add(runMenu);
         
-        // Set each next position
-        for (Body b : bodies) {
-            if (b.moveable) {
-                b.state.x = b.nextState.x;
-                b.state.y = b.nextState.y;
-                b.state.z = b.nextState.z;
-                b.state.vx = b.nextState.vx;
-                b.state.vy = b.nextState.vy;
-                b.state.vz = b.nextState.vz;
+        JMenu viewMenu = new JMenu("View");
+        final JCheckBoxMenuItem activeItem = new JCheckBoxMenuItem("Active Rendering", true);
+        activeItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (activeItem.isSelected()) {
+                    renderLoop.start();
+                } else {
+                    renderLoop.stop();
+                }
+                refreshView();
             }
-        }
+        });
+        viewMenu.add(activeItem);
+        
+        final JCheckBoxMenuItem tiledItem = new JCheckBoxMenuItem("Tiled Rasterizer", false);
+        tiledItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                // Draw on every thread instead of one at a time with Java2D
+                mainPanel.renderer.setTiled(tiledItem.isSelected());
+                renderLoop.getRenderer().setTiled(tiledItem.isSelected());
+                refreshView();
+            }
+        });
+        viewMenu.add(tiledItem);
+        
+        final JCheckBoxMenuItem governorItem = new JCheckBoxMenuItem("Frame Governor", true);
+        governorItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                // Off puts the detail and the steps back to full
+                governor.setEnabled(governorItem.isSelected());
+                refreshView();
+            }
+        });
+        viewMenu.add(governorItem);
+        menuBar.add(viewMenu);
+        
+        menuBar.add(Box.createHorizontalGlue());
+        menuBar.add(statusLabel);
+        setJMenuBar(menuBar);
+    }
+    
+    /**
+     * Run the simulation ahead on a background thread, with a progress dialog
+     * that can cancel it. Nothing is drawn until it is done, then the view
+     * carries on from where it ended, running again if it was before
+     * @param batch The run to do
+     */
+    private void runBatch(final BatchRun batch) {
+        final boolean wasRunning = scheduler.isRunning();
+        scheduler.pause();
+        batchRunning = true;
+        renderLoop.setHeld(true);
+        changeButton.setEnabled(false);
+        runMenu.setEnabled(false);
         
-        // Update the edit window
-        Body bufferedBody = selectedBody;
-        if (bufferedBody != null) {
-            if (loopTime % 50 == 0) {
-                xFieldEdit.setValue(bufferedBody.state.x);
-                yFieldEdit.setValue(bufferedBody.state.y);
-                zFieldEdit.setValue(bufferedBody.state.z);
-                vxFieldEdit.setValue(bufferedBody.state.vx);
-                vyFieldEdit.setValue(bufferedBody.state.vy);
-                vzFieldEdit.setValue(bufferedBody.state.vz);
-                massFieldEdit.setValue(bufferedBody.mass);
-                radiusFieldEdit.setValue(bufferedBody.r);
+        final ProgressMonitor monitor = new ProgressMonitor(this, "Running ahead", "", 0, 1000);
+        monitor.setMillisToDecideToPopup(200);
+        new SwingWorker<ArrayList<Body>, double[]>() {
+            @Override
+            protected ArrayList<Body> doInBackground() {
+                return batch.run(new BatchRun.Progress() {
+                    @Override
+                    public void progress(double fraction, long steps, double stepsPerSecond) {
+                        publish(new double[] {fraction, steps, stepsPerSecond});
+                    }
+                });
+            }
+            
+            @Override
+            protected void process(List<double[]> chunks) {
+                double[] latest = chunks.get(chunks.size()-1);
+                monitor.setProgress((int) (1000*latest[0]));
+                monitor.setNote(String.format("%.0f steps, %.0f steps/s", latest[1], latest[2]));
+                if (monitor.isCanceled()) {
+                    batch.cancel();
+                }
             }
             
-            // Follow the body
-            if (followBodyButton.isSelected()) {
-                setWindowToBody(bufferedBody);
+            @Override
+            protected void done() {
+                monitor.close();
+                try {
+                    removedBodies.addAll(get());
+                } catch (InterruptedException | ExecutionException ex) {
+                    JOptionPane.showMessageDialog(SpaceSim.this, "The run failed: "+ex.getCause(), "Error", JOptionPane.ERROR_MESSAGE);
+                }
+                batchRunning = false;
+                engine.publish();
+                renderLoop.setHeld(false);
+                updateView.run();
+                changeButton.setEnabled(true);
+                runMenu.setEnabled(true);
+                if (wasRunning) {
+                    scheduler.start();
+                }
             }
+        }.execute();
+    }
+    
+    /**
+     * Publish the result of a tick's steps. This runs on the physics thread,
+     * so it leaves everything to do with the GUI to updateView
+     * @param removed The bodies the steps removed
+     */
+    private void step(ArrayList<Body> removed) {
+        removedBodies.addAll(removed);
+        engine.publish();
+        if (viewUpdatePending.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(updateView);
         }
     }
     
-    private boolean areTouching(Body b1, Body b2) {
-        double dx = b2.state.x - b1.state.x;
-        double dy = b2.state.y - b1.state.y;
-        double dz = b2.state.z - b1.state.z;
-        double d = Math.sqrt(dx*dx+dy*dy+dz*dz);
-        
-        return d <= b1.r+b2.r;
+    /**
+     * Show the newest snapshot. Runs on the event dispatch thread, at most once
+     * for however many steps were taken since it last ran
+     */
+    private final Runnable updateView = new Runnable() {
+        @Override
+        public void run() {
+            viewUpdatePending.set(false);
+            WorldSnapshot world = engine.getSnapshot();
+            
+            // Set up the times
+            long loopTime = world.clock;
+            boolean showTime = loopTime/250 != shownClock/250;
+            boolean showEditor = loopTime/50 != shownClock/50;
+            shownClock = loopTime;
+            if (showTime) {
+                simDate.setTime(loopTime);
+                timeField.setValue(simDate);
+            }
+            
+            // Take the bodies that were removed out of the GUI
+            Body removed;
+            while ((removed = removedBodies.poll()) != null) {
+                bodiesComboBox.removeItem(removed.name);
+                totalBodiesCounter.setText(""+bodies.size());
+            }
+            
+            // Update the edit window
+            Body bufferedBody = selectedBody;
+            if (bufferedBody != null) {
+                int i = world.indexOf(bufferedBody);
+                if (showEditor && i >= 0) {
+                    showValues(world, i);
+                }
+                
+                // Follow the body
+                if (followBodyButton.isSelected()) {
+                    setWindowToBody(bufferedBody);
+                }
+            }
+            
+            // The render thread draws new snapshots itself
+            if (!renderLoop.isRunning()) {
+                mainPanel.repaint();
+            }
+        }
+    };
+    
+    /**
+     * Show how fast the physics and the drawing are going, and anything the
+     * governor has turned down
+     */
+    private void updateStatus() {
+        String status = "";
+        if (scheduler.isRunning()) {
+            status += String.format("%.0f steps/s   ", scheduler.getStepsPerSecond());
+        }
+        if (renderLoop.isRunning()) {
+            status += String.format("%.0f fps, frame %.1f / %.1f / %.1f ms (50/90/99%%) ",
+                    renderLoop.getFramesPerSecond(), renderLoop.getFrameTime(0.5),
+                    renderLoop.getFrameTime(0.9), renderLoop.getFrameTime(0.99));
+        }
+        String reduced = governor.describe();
+        if (!reduced.isEmpty()) {
+            status += "  reduced: "+reduced+" ";
+        }
+        statusLabel.setText(status);
+    }
+    
+    /**
+     * Redraw the main panel after something was changed from the GUI. While
+     * the physics is paused nothing else publishes, so a snapshot is taken
+     * first for the change to show up
+     */
+    private void refreshView() {
+        if (!scheduler.isRunning() && !batchRunning) {
+            engine.publish();
+        }
+        mainPanel.repaint();
+    }
+    
+    /**
+     * @return The newest snapshot. When the physics is paused, one is taken
+     * first so that any changes made from the GUI show up, unless a batch
+     * run is part way through
+     */
+    private WorldSnapshot currentWorld() {
+        if (!scheduler.isRunning() && !batchRunning) {
+            engine.publish();
+        }
+        return engine.getSnapshot();
+    }
+    
+    /**
+     * Put a body's values from a snapshot into the editor fields
+     */
+    private void showValues(WorldSnapshot world, int i) {
+        xFieldEdit.setValue(world.x[i]);
+        yFieldEdit.setValue(world.y[i]);
+        zFieldEdit.setValue(world.z[i]);
+        vxFieldEdit.setValue(world.vx[i]);
+        vyFieldEdit.setValue(world.vy[i]);
+        vzFieldEdit.setValue(world.vz[i]);
+        massFieldEdit.setValue(world.mass[i]);
+        radiusFieldEdit.setValue(world.radius[i]);
+    }
+    
+    /**
+     * @return The name of every body
+     */
+    private ArrayList<String> bodyNames() {
+        ArrayList<String> names = new ArrayList<>();
+        synchronized (bodies) {
+            for (Body b : bodies) {
+                names.add(b.name);
+            }
+        }
+        return names;
     }
     
     private void addBody(String type, double mass, double density,
             double x, double y, double z, double dx, double dy, double dz) {
-        Body body = new Body(this, type, mass, density, x, y, z, dx, dy, dz);
+        Body body = new Body(type, mass, density, x, y, z, dx, dy, dz);
         body.setRadiusFromMass();
         
         if (type.equals("Sun")) {
             body.name = "Sun "+sunCnt;
             sunCnt++;
         } else {
-            String[] bodyNames = new String[bodies.size()];
-            for (int i = 0; i < bodies.size(); i++) {
-                bodyNames[i] = bodies.get(i).name;
-            }
-            
-            while (Arrays.asList(bodyNames).contains(names[nameCnt])) {
+            ArrayList<String> bodyNames = bodyNames();
+            while (bodyNames.contains(names[nameCnt])) {
                 nameCnt++;
             }
             body.name = names[nameCnt];
@@ -550,7 +863,7 @@ public class SpaceSim extends javax.swing.JFrame {
 
         fastLabel.setText("Fast");
 
-        pathsComboBox.setModel(new javax.swing.DefaultComboBoxModel(new String[] { "No Paths", "Dots", "Lines" }));
+        pathsComboBox.setModel(new javax.swing.DefaultComboBoxModel(new String[] { "No Paths", "Dots", "Lines", "Density" }));
         pathsComboBox.addItemListener(new java.awt.event.ItemListener() {
             public void itemStateChanged(java.awt.event.ItemEvent evt) {
                 pathsComboBoxItemStateChanged(evt);
@@ -1235,13 +1548,6 @@ public class SpaceSim extends javax.swing.JFrame {
 
     private void changeButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_changeButtonActionPerformed
         if (changeButton.getText().equals("Start")) {
-            gameTimerTask = new TimerTask() {
-                @Override
-                public void run() {
-                    step();
-                }
-            };
-            
             nameChangeButton.setEnabled(false);
             posChangeButton.setEnabled(false);
             velChangeButton.setEnabled(false);
@@ -1258,7 +1564,7 @@ public class SpaceSim extends javax.swing.JFrame {
             massFieldEdit.setFocusable(false);
             radiusFieldEdit.setFocusable(false);
             
-            new Timer().scheduleAtFixedRate(gameTimerTask, 0, calcFreq);
+            scheduler.start();
             changeButton.setText("Pause");
         } else {
             if (selectedBody != null) {
@@ -1279,7 +1585,7 @@ public class SpaceSim extends javax.swing.JFrame {
                 radiusFieldEdit.setFocusable(true);
             }
             
-            gameTimerTask.cancel();
+            scheduler.pause();
             changeButton.setText("Start");
         }
     }//GEN-LAST:event_changeButtonActionPerformed
@@ -1315,9 +1621,9 @@ public class SpaceSim extends javax.swing.JFrame {
             //double vy = (Math.random()*4+2)*Math.sqrt(GRAV_CONST*massOfSun/r)*dx/r;
             
             // get vx and vy from v, use perfect circle depending on the force law
-            double vx = Math.sqrt(GRAV_CONST*massOfSun*Math.pow(r, forceLaw+1))*dy/r;
-            double vy = Math.sqrt(GRAV_CONST*massOfSun*Math.pow(r, forceLaw+1))*dx/r;
-            double vz = Math.sqrt(GRAV_CONST*massOfSun*Math.pow(r, forceLaw+1))*dz/r;
+            double vx = Math.sqrt(SimulationEngine.GRAV_CONST*massOfSun*Math.pow(r, engine.getForceLaw().getExponent()+1))*dy/r;
+            double vy = Math.sqrt(SimulationEngine.GRAV_CONST*massOfSun*Math.pow(r, engine.getForceLaw().getExponent()+1))*dx/r;
+            double vz = Math.sqrt(SimulationEngine.GRAV_CONST*massOfSun*Math.pow(r, engine.getForceLaw().getExponent()+1))*dz/r;
             
             vx *= Math.random()*.7+.65;
             vy *= Math.random()*.7+.65;
@@ -1325,7 +1631,7 @@ public class SpaceSim extends javax.swing.JFrame {
             
             addBody("Planet", Math.random()*0.29+0.01, Math.random()*0.00004+0.00008, x, y, z, vx, vy, vz);
         }
-        mainPanel.repaint();
+        refreshView();
     }//GEN-LAST:event_addPlanetsButtonActionPerformed
 
     private void zoomSliderStateChanged(javax.swing.event.ChangeEvent evt) {//GEN-FIRST:event_zoomSliderStateChanged
@@ -1334,7 +1640,8 @@ public class SpaceSim extends javax.swing.JFrame {
         dWindowY /= dZoom;
         
         zMult = zoomSlider.getValue();*/
-        mainPanel.repaint();
+        updateTrailTolerance();
+        refreshView();
     }//GEN-LAST:event_zoomSliderStateChanged
 
     private void speedSliderStateChanged(javax.swing.event.ChangeEvent evt) {//GEN-FIRST:event_speedSliderStateChanged
@@ -1356,6 +1663,9 @@ public class SpaceSim extends javax.swing.JFrame {
                 };
             new Timer().scheduleAtFixedRate(gameTimerTask, 0, calcFreq);
         }*/
+        
+        // Faster means more steps each tick, rather than bigger ones
+        scheduler.setSpeed(speedSlider.getValue());
     }//GEN-LAST:event_speedSliderStateChanged
 
     private void mainPanelMouseDragged(java.awt.event.MouseEvent evt) {//GEN-FIRST:event_mainPanelMouseDragged
@@ -1367,7 +1677,7 @@ public class SpaceSim extends javax.swing.JFrame {
             followBodyButton.setSelected(false);
         }
         
-        mainPanel.repaint();
+        refreshView();
     }//GEN-LAST:event_mainPanelMouseDragged
 
     private void mainPanelMousePressed(java.awt.event.MouseEvent evt) {//GEN-FIRST:event_mainPanelMousePressed
@@ -1381,78 +1691,87 @@ public class SpaceSim extends javax.swing.JFrame {
     }//GEN-LAST:event_mainPanelMouseWheelMoved
 
     private void pathsComboBoxItemStateChanged(java.awt.event.ItemEvent evt) {//GEN-FIRST:event_pathsComboBoxItemStateChanged
-        for (Body b : bodies) {
-            b.pastPos = new CopyOnWriteArrayList<>();
+        switch ((String)pathsComboBox.getSelectedItem()) {
+            case "Dots": engine.setPathMode(SimulationEngine.PATHS_DOTS); break;
+            case "Lines": engine.setPathMode(SimulationEngine.PATHS_LINES); break;
+            case "Density": engine.setPathMode(SimulationEngine.PATHS_DENSITY); break;
+            default: engine.setPathMode(SimulationEngine.PATHS_NONE); break;
         }
-        mainPanel.repaint();
+        synchronized (bodies) {
+            for (Body b : bodies) {
+                b.trail.clear();
+            }
+        }
+        refreshView();
     }//GEN-LAST:event_pathsComboBoxItemStateChanged
 
     private void mainPanelMouseClicked(java.awt.event.MouseEvent evt) {//GEN-FIRST:event_mainPanelMouseClicked
         double zoom = 1/(zoomSlider.getValue()/10.0);
-        for (Body b : bodies) {
-            double zZoom = Math.pow(zZoomBase, -1*b.state.z);
-            double x3D = 2*(b.state.x);
-            double y3D = (b.state.y) + b.state.z;
-            
-            double gX = zoom*(dWindowX + x3D) + mainPanel.getWidth()/2.0;
-            double gY = zoom*(dWindowY + y3D) + mainPanel.getHeight()/2.0;
-            double gr = b.r*zoom*zZoom;
-
-            double dx = evt.getX() - gX;
-            double dy = evt.getY() - gY;
-            
-            if (dx*dx+dy*dy < gr*gr) {
-                bodiesComboBox.setSelectedItem(b.name);
-                editAddTabbedPane.setSelectedComponent(editPanel);
-            }
+        WorldSnapshot world = currentWorld();
+        picker.setView(zoom, dWindowX, dWindowY, mainPanel.getWidth(), mainPanel.getHeight());
+        picker.project(world, false);
+        int i = picker.pick(evt.getX(), evt.getY());
+        if (i >= 0) {
+            bodiesComboBox.setSelectedItem(world.bodies[i].name);
+            editAddTabbedPane.setSelectedComponent(editPanel);
         }
     }//GEN-LAST:event_mainPanelMouseClicked
 
     private void radiusChangeButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_radiusChangeButtonActionPerformed
         double r = Double.parseDouble(radiusFieldEdit.getText());
-        selectedBody.r = r;
-        double density = (3.0 * selectedBody.mass) / (r*r*r * 4.0 * Math.PI);
-        selectedBody.DENSITY = density;
+        synchronized (bodies) {
+            selectedBody.setR(r);
+            double density = (3.0 * selectedBody.getMass()) / (r*r*r * 4.0 * Math.PI);
+            selectedBody.setDensity(density);
+        }
         
-        mainPanel.repaint();
+        refreshView();
         
     }//GEN-LAST:event_radiusChangeButtonActionPerformed
 
     private void radiusFieldEditActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_radiusFieldEditActionPerformed
         double r = Double.parseDouble(radiusFieldEdit.getText());
-        selectedBody.r = r;
-        double density = (3.0 * selectedBody.mass) / (r*r*r * 4.0 * Math.PI);
-        selectedBody.DENSITY = density;
+        synchronized (bodies) {
+            selectedBody.setR(r);
+            double density = (3.0 * selectedBody.getMass()) / (r*r*r * 4.0 * Math.PI);
+            selectedBody.setDensity(density);
+        }
         
-        mainPanel.repaint();
+        refreshView();
     }//GEN-LAST:event_radiusFieldEditActionPerformed
 
     private void massFieldEditActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_massFieldEditActionPerformed
         double mass = Double.parseDouble(massFieldEdit.getText());
-        selectedBody.mass = mass;
-        double density = (3.0 * mass) / (selectedBody.r*selectedBody.r*selectedBody.r * 4.0 * Math.PI);
-        selectedBody.DENSITY = density;
+        synchronized (bodies) {
+            selectedBody.setMass(mass);
+            double r = selectedBody.getR();
+            double density = (3.0 * mass) / (r*r*r * 4.0 * Math.PI);
+            selectedBody.setDensity(density);
+        }
         
         if (selectedBody == sun) {
-            massOfSun = selectedBody.mass;
+            massOfSun = selectedBody.getMass();
         }
     }//GEN-LAST:event_massFieldEditActionPerformed
 
     private void massChangeButtonEditActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_massChangeButtonEditActionPerformed
         double mass = Double.parseDouble(massFieldEdit.getText());
-        selectedBody.mass = mass;
-        double density = (3.0 * mass) / (selectedBody.r*selectedBody.r*selectedBody.r * 4.0 * Math.PI);
-        selectedBody.DENSITY = density;
+        synchronized (bodies) {
+            selectedBody.setMass(mass);
+            double r = selectedBody.getR();
+            double density = (3.0 * mass) / (r*r*r * 4.0 * Math.PI);
+            selectedBody.setDensity(density);
+        }
         
         if (selectedBody == sun) {
-            massOfSun = selectedBody.mass;
+            massOfSun = selectedBody.getMass();
         }
     }//GEN-LAST:event_massChangeButtonEditActionPerformed
 
     private void colorComboBoxEditActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_colorComboBoxEditActionPerformed
         if (selectedBody != null) {
             selectedBody.color = (String) colorComboBoxEdit.getSelectedItem();
-            mainPanel.repaint();
+            refreshView();
         }
     }//GEN-LAST:event_colorComboBoxEditActionPerformed
 
@@ -1461,34 +1780,55 @@ public class SpaceSim extends javax.swing.JFrame {
     }//GEN-LAST:event_nameFieldEditActionPerformed
 
     private void vyFieldEditActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_vyFieldEditActionPerformed
-        selectedBody.state.vy = Double.parseDouble(vyFieldEdit.getText());
+        double vy = Double.parseDouble(vyFieldEdit.getText());
+        synchronized (bodies) {
+            selectedBody.setVy(vy);
+        }
     }//GEN-LAST:event_vyFieldEditActionPerformed
 
     private void zFieldEditActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_zFieldEditActionPerformed
-        selectedBody.state.z = Double.parseDouble(zFieldEdit.getText());
-        mainPanel.repaint();
+        double z = Double.parseDouble(zFieldEdit.getText());
+        synchronized (bodies) {
+            selectedBody.setZ(z);
+        }
+        refreshView();
     }//GEN-LAST:event_zFieldEditActionPerformed
 
     private void vxFieldEditActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_vxFieldEditActionPerformed
-        selectedBody.state.vx = Double.parseDouble(vxFieldEdit.getText());
+        double vx = Double.parseDouble(vxFieldEdit.getText());
+        synchronized (bodies) {
+            selectedBody.setVx(vx);
+        }
     }//GEN-LAST:event_vxFieldEditActionPerformed
 
     private void vzFieldEditActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_vzFieldEditActionPerformed
-        selectedBody.state.vz = Double.parseDouble(vzFieldEdit.getText());
+        double vz = Double.parseDouble(vzFieldEdit.getText());
+        synchronized (bodies) {
+            selectedBody.setVz(vz);
+        }
     }//GEN-LAST:event_vzFieldEditActionPerformed
 
     private void xFieldEditActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_xFieldEditActionPerformed
-        selectedBody.state.x = Double.parseDouble(xFieldEdit.getText());
-        mainPanel.repaint();
+        double x = Double.parseDouble(xFieldEdit.getText());
+        synchronized (bodies) {
+            selectedBody.setX(x);
+        }
+        refreshView();
     }//GEN-LAST:event_xFieldEditActionPerformed
 
     private void moveableCheckBoxEditActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_moveableCheckBoxEditActionPerformed
-        selectedBody.moveable = moveableCheckBoxEdit.isSelected();
+        // This can be changed while running, so wait for the step to finish
+        synchronized (bodies) {
+            selectedBody.setMoveable(moveableCheckBoxEdit.isSelected());
+        }
     }//GEN-LAST:event_moveableCheckBoxEditActionPerformed
 
     private void yFieldEditActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_yFieldEditActionPerformed
-        selectedBody.state.y = Double.parseDouble(yFieldEdit.getText());
-        mainPanel.repaint();
+        double y = Double.parseDouble(yFieldEdit.getText());
+        synchronized (bodies) {
+            selectedBody.setY(y);
+        }
+        refreshView();
     }//GEN-LAST:event_yFieldEditActionPerformed
 
     private void nameChangeButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_nameChangeButtonActionPerformed
@@ -1496,25 +1836,32 @@ public class SpaceSim extends javax.swing.JFrame {
     }//GEN-LAST:event_nameChangeButtonActionPerformed
 
     private void velChangeButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_velChangeButtonActionPerformed
-        selectedBody.state.vx = Double.parseDouble(vxFieldEdit.getText());
-        selectedBody.state.vy = Double.parseDouble(vyFieldEdit.getText());
-        selectedBody.state.vz = Double.parseDouble(vzFieldEdit.getText());
+        double vx = Double.parseDouble(vxFieldEdit.getText());
+        double vy = Double.parseDouble(vyFieldEdit.getText());
+        double vz = Double.parseDouble(vzFieldEdit.getText());
+        // Set all three between steps, so no step sees half of the change
+        synchronized (bodies) {
+            selectedBody.setVx(vx);
+            selectedBody.setVy(vy);
+            selectedBody.setVz(vz);
+        }
     }//GEN-LAST:event_velChangeButtonActionPerformed
 
     private void posChangeButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_posChangeButtonActionPerformed
-        selectedBody.state.x = Double.parseDouble(xFieldEdit.getText());
-        selectedBody.state.y = Double.parseDouble(yFieldEdit.getText());
-        selectedBody.state.z = Double.parseDouble(zFieldEdit.getText());
-        mainPanel.repaint();
+        double x = Double.parseDouble(xFieldEdit.getText());
+        double y = Double.parseDouble(yFieldEdit.getText());
+        double z = Double.parseDouble(zFieldEdit.getText());
+        // Set all three between steps, so no step sees half of the change
+        synchronized (bodies) {
+            selectedBody.setX(x);
+            selectedBody.setY(y);
+            selectedBody.setZ(z);
+        }
+        refreshView();
     }//GEN-LAST:event_posChangeButtonActionPerformed
 
     private void addNewBodyButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_addNewBodyButtonActionPerformed
-        String[] bodyNames = new String[bodies.size()];
-        for (int i = 0; i < bodies.size(); i++) {
-            bodyNames[i] = bodies.get(i).name;
-        }
-        
-        if (Arrays.asList(bodyNames).contains(nameFieldAdd.getText())) {
+        if (bodyNames().contains(nameFieldAdd.getText())) {
             JOptionPane.showMessageDialog(null, "That name is already taken", "Invalid", JOptionPane.INFORMATION_MESSAGE);
         } else if (xFieldAdd.getText().equals("") || yFieldAdd.getText().equals("") || zFieldAdd.getText().equals("") ||
                 vxFieldAdd.getText().equals("") || vyFieldAdd.getText().equals("") || vzFieldAdd.getText().equals("") ||
@@ -1540,11 +1887,11 @@ public class SpaceSim extends javax.swing.JFrame {
             
             double density = (3.0 * mass) / (r*r*r * 4.0 * Math.PI);
             
-            Body body = new Body(this, type, mass, density, x, y, z, vx, vy, vz);
+            Body body = new Body(type, mass, density, x, y, z, vx, vy, vz);
             body.setRadiusFromMass();
             body.name = nameFieldAdd.getText();
             body.color = (String) colorComboBoxAdd.getSelectedItem();
-            body.moveable = moveableCheckBoxAdd.isSelected();
+            body.setMoveable(moveableCheckBoxAdd.isSelected());
             
             bodies.add(body);
             totalBodiesCounter.setText(""+bodies.size());
@@ -1553,7 +1900,7 @@ public class SpaceSim extends javax.swing.JFrame {
             bodiesComboBox.addItem(body.name);
             bodiesComboBox.setSelectedItem(body.name);
             
-            mainPanel.repaint();
+            refreshView();
         }
     }//GEN-LAST:event_addNewBodyButtonActionPerformed
 
@@ -1562,21 +1909,21 @@ public class SpaceSim extends javax.swing.JFrame {
         bodiesComboBox.removeItem(selectedBody.name);
         totalBodiesCounter.setText(""+bodies.size());
         
-        mainPanel.repaint();
+        refreshView();
     }//GEN-LAST:event_deleteBodyButtonActionPerformed
 
     private void bodiesComboBoxItemStateChanged(java.awt.event.ItemEvent evt) {//GEN-FIRST:event_bodiesComboBoxItemStateChanged
         followBodyButton.setSelected(false);
-        boolean bodySelected = false;
-        for (Body b : bodies) {
-            if (b.name.equals((String) bodiesComboBox.getSelectedItem())) {
-                setEditor(b);
-                bodySelected = true;
-                break;
-            }
-        } if (!bodySelected) {
-            setEditor(null);
+        Body selected = null;
+        synchronized (bodies) {
+            for (Body b : bodies) {
+                if (b.name.equals((String) bodiesComboBox.getSelectedItem())) {
+                    selected = b;
+                    break;
+                }
+            }
         }
+        setEditor(selected);
     }//GEN-LAST:event_bodiesComboBoxItemStateChanged
 
     private void editAddTabbedPaneStateChanged(javax.swing.event.ChangeEvent evt) {//GEN-FIRST:event_editAddTabbedPaneStateChanged
@@ -1632,10 +1979,12 @@ public class SpaceSim extends javax.swing.JFrame {
     private void removeAllButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_removeAllButtonActionPerformed
         ArrayList<Body> toBeRemoved = new ArrayList<>();
 
-        for (Body b: bodies) {
-            if ((removeAllSunsCheckBox.isSelected() && b.type.equals("Sun")) ||
-                (removeAllPlanetsCheckBox.isSelected() && b.type.equals("Planet"))) {
-                toBeRemoved.add(b);
+        synchronized (bodies) {
+            for (Body b: bodies) {
+                if ((removeAllSunsCheckBox.isSelected() && b.type.equals("Sun")) ||
+                    (removeAllPlanetsCheckBox.isSelected() && b.type.equals("Planet"))) {
+                    toBeRemoved.add(b);
+                }
             }
         }
         
@@ -1649,7 +1998,7 @@ public class SpaceSim extends javax.swing.JFrame {
         }
         
         totalBodiesCounter.setText(""+bodies.size());
-        mainPanel.repaint();
+        refreshView();
     }//GEN-LAST:event_removeAllButtonActionPerformed
 
     private void locateBodyButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_locateBodyButtonActionPerformed
@@ -1666,24 +2015,30 @@ public class SpaceSim extends javax.swing.JFrame {
 
     private void forceLawComboBoxItemStateChanged(java.awt.event.ItemEvent evt) {//GEN-FIRST:event_forceLawComboBoxItemStateChanged
         if (evt.getStateChange() == 1) {
-            switch ((String)evt.getItem()) {
-                case "1/r^3": forceLaw = -3; break;
-                case "1/r^2": forceLaw = -2; break;
-                case "1/r": forceLaw = -1; break;
-                case "r": forceLaw = 1; break;
-                case "r^2": forceLaw = 2; break;
-            }
+            // The kernel is looked up once here rather than for every pair
+            engine.setForceLaw(ForceLaw.forName((String)evt.getItem()));
         }
     }//GEN-LAST:event_forceLawComboBoxItemStateChanged
 
+    /**
+     * Let trails drawn as lines stray up to half a pixel at the current zoom.
+     * Trails already drawn keep the points they had
+     */
+    private void updateTrailTolerance() {
+        double zoom = 1/(zoomSlider.getValue()/10.0);
+        engine.setTrailTolerance(0.5/zoom);
+    }
+    
     private void setWindowToBody(Body b) {
-        double x3D = 2*(b.state.x);
-        double y3D = (b.state.y) + b.state.z;
-        
-        dWindowX = (int) (-1*x3D);
-        dWindowY = (int) (-1*y3D);
+        WorldSnapshot world = currentWorld();
+        int i = world.indexOf(b);
+        if (i < 0) {
+            return;
+        }
+        dWindowX = (int) (-1*Projection.planeX(world.x[i]));
+        dWindowY = (int) (-1*Projection.planeY(world.y[i], world.z[i]));
         
-        mainPanel.repaint();
+        refreshView();
     }
     
     private void setEditor(Body b) {
@@ -1703,16 +2058,13 @@ public class SpaceSim extends javax.swing.JFrame {
             colorComboBoxEdit.setEnabled(true);
 
             nameFieldEdit.setText(b.name);
-            xFieldEdit.setValue(b.state.x);
-            yFieldEdit.setValue(b.state.y);
-            zFieldEdit.setValue(b.state.z);
-            vxFieldEdit.setValue(b.state.vx);
-            vyFieldEdit.setValue(b.state.vy);
-            vzFieldEdit.setValue(b.state.vz);
-            massFieldEdit.setValue(b.mass);
-            radiusFieldEdit.setValue(b.r);
+            WorldSnapshot world = currentWorld();
+            int i = world.indexOf(b);
+            if (i >= 0) {
+                showValues(world, i);
+            }
             colorComboBoxEdit.setSelectedItem(b.color);
-            moveableCheckBoxEdit.setSelected(b.moveable);
+            moveableCheckBoxEdit.setSelected(b.isMoveable());
 
             deleteBodyButton.setEnabled(true);
             locateBodyButton.setEnabled(true);
@@ -1762,12 +2114,7 @@ public class SpaceSim extends javax.swing.JFrame {
     }
     
     private void changeName() {
-        String[] bodyNames = new String[bodies.size()];
-        for (int i = 0; i < bodies.size(); i++) {
-            bodyNames[i] = bodies.get(i).name;
-        }
-        
-        if (Arrays.asList(bodyNames).contains(nameFieldEdit.getText())) {
+        if (bodyNames().contains(nameFieldEdit.getText())) {
             JOptionPane.showMessageDialog(null, "That name is already taken", "Invalid", JOptionPane.INFORMATION_MESSAGE);
             nameFieldEdit.setText(selectedBody.name);
         } else {
@@ -1807,69 +2154,40 @@ public class SpaceSim extends javax.swing.JFrame {
     }
     
     private class MainPanel extends JPanel {
+        private final Renderer renderer = new Renderer(colors, zZoomBase);
+        
         @Override
         public void paintComponent(Graphics g) {
             super.paintComponent(g);
             double zoom = 1/(zoomSlider.getValue()/10.0);
             
-            ArrayList<SpaceObject> everything = new ArrayList<>();
-            everything.addAll(bodies);
-            
-            g.setColor(Color.BLUE);
-            for (Body b : bodies) {
-                if (pathsComboBox.getSelectedItem().equals("Lines")) {
-                    for (int i = 1; i < b.pastPos.size()-1; i++) {
-                        Shadow preS = b.pastPos.get(i-1);
-                        Integer[] posBefore = new Integer[]{(int)preS.state.x, (int)preS.state.y, (int)preS.state.z};
-                        
-                        Shadow nowS = b.pastPos.get(i);
-                        Integer[] pos = new Integer[]{(int)nowS.state.x, (int)nowS.state.y, (int)nowS.state.z};
-                        
-                        double x3D = 2*(pos[0]);
-                        double realXPos = zoom*(dWindowX + x3D);
-                        double y3D = (pos[1]) + pos[2];
-                        double realYPos = zoom*(dWindowY + y3D);
-                        double x3DPast = 2*(posBefore[0]);
-                        double realXPosPast = zoom*(dWindowX + x3DPast);
-                        double y3DPast = (posBefore[1]) + posBefore[2];
-                        double realYPosPast = zoom*(dWindowY + y3DPast);
-                        
-                        g.drawLine((int) (realXPosPast + getWidth()/2.0),
-                                (int) (realYPosPast + getHeight()/2.0),
-                                (int) (realXPos + getWidth()/2.0),
-                                (int) (realYPos + getHeight()/2.0));
-                    }
-                } else {
-                    everything.addAll(b.pastPos);
+            // Keep the last frame up until a batch run is done. The trails
+            // are read live, so even an old snapshot would show part of it
+            if (batchRunning) {
+                if (renderLoop != null && renderLoop.isRunning()) {
+                    renderLoop.showLastFrame(g);
                 }
+                return;
             }
             
-            SpaceObject[] spaceObjects = everything.toArray(new SpaceObject[0]);
-            SpaceObject[] copy = Arrays.copyOf(spaceObjects, spaceObjects.length);
-            try {
-                    Arrays.sort(copy, new Comparator<SpaceObject>() {
-                    @Override
-                    public int compare(SpaceObject b1, SpaceObject b2) {
-                        return (int) Math.signum(b2.state.z - b1.state.z);
-                    }
-                });
-            } catch(IllegalArgumentException e) {}
-                
-            for (SpaceObject so : copy) {
-                g.setColor(colors.get(so.color));
-                double zZoom = Math.pow(zZoomBase, -1*so.state.z);
-                double x3D = 2*(so.state.x);
-                double y3D = (so.state.y) + so.state.z;
-                
-                double realXPos = zoom*(dWindowX + x3D);
-                double realYPos = zoom*(dWindowY + y3D);
-                
-                double r = so.r*zoom*zZoom;
-                g.fillOval((int) (realXPos - r + getWidth()/2.0),
-                        (int) (realYPos - r + getHeight()/2.0),
-                        (int) (2*r),
-                        (int) (2*r));
+            if (renderLoop != null && renderLoop.isRunning()) {
+                // The render thread draws the frames and asks for this to put
+                // them up. This only passes on the view, and fills in until
+                // the next frame
+                renderLoop.setView(zoom, dWindowX, dWindowY);
+                if (renderLoop.showLastFrame(g)) {
+                    return;
+                }
             }
+            
+            // Everything is drawn from one snapshot, which the physics does
+            // not touch while it is being drawn. Changes made from the GUI
+            // while paused are published by refreshView, not here
+            renderer.setView(zoom, dWindowX, dWindowY);
+            renderer.setBackground(getBackground());
+            long start = System.nanoTime();
+            renderer.render(g, engine.getSnapshot(), getWidth(), getHeight(), engine.getPathMode());
+            governor.frameDrawn(System.nanoTime() - start);
         }
     }
     
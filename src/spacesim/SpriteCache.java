@@ -0,0 +1,79 @@
+/**
+ * Pictures of filled, antialiased circles, one for each color and whole
+ * number of pixels across, made the first time they are needed. Drawing a
+ * circle is then one image copy, which Java2D can keep on the graphics card,
+ * rather than working out the shape of an oval every time.
+ *
+ * Colors are numbered once, so the renderer can keep a number for each body
+ * instead of looking its color up by name every frame.
+ */
+
+package spacesim;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Map;
+
+public class SpriteCache {
+    // Circles bigger than this are drawn as ovals, since there are few of
+    // them and their pictures would take a lot of memory
+    public static final int MAX_SIZE = 64;
+
+    private final HashMap<String, Integer> indices = new HashMap<>();
+    private final Color[] palette;
+    private final BufferedImage[][] sprites;
+
+    /**
+     * @param colors The color for each color name
+     */
+    public SpriteCache(Map<String, Color> colors) {
+        palette = new Color[colors.size()];
+        for (Map.Entry<String, Color> e : colors.entrySet()) {
+            palette[indices.size()] = e.getValue();
+            indices.put(e.getKey(), indices.size());
+        }
+        sprites = new BufferedImage[palette.length][MAX_SIZE+1];
+    }
+
+    /**
+     * @param name A color name
+     * @return Its number, or -1 if there is no such color
+     */
+    public int indexOf(String name) {
+        Integer index = indices.get(name);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @param index A color's number
+     * @return The color, or black if there is no such color
+     */
+    public Color getColor(int index) {
+        return index < 0 ? Color.BLACK : palette[index];
+    }
+
+    /**
+     * @param index A color's number
+     * @param size How many pixels across the circle is
+     * @return The picture of the circle, or null if it is too big to keep
+     */
+    public BufferedImage getSprite(int index, int size) {
+        if (index < 0 || size < 1 || size > MAX_SIZE) {
+            return null;
+        }
+        BufferedImage sprite = sprites[index][size];
+        if (sprite == null) {
+            sprite = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB_PRE);
+            Graphics2D g = sprite.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setColor(palette[index]);
+            g.fillOval(0, 0, size, size);
+            g.dispose();
+            sprites[index][size] = sprite;
+        }
+        return sprite;
+    }
+}
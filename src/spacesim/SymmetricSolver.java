@@ -0,0 +1,158 @@
+/**
+ * Exact gravity like DirectSolver, but each pair of bodies is only visited
+ * once. The pull of j on i and the equal and opposite pull of i on j come from
+ * the same distance, so half of the work is saved.
+ *
+ * The pairs are worked through in square tiles of rows, small enough that a
+ * tile's positions stay in the cache while it is paired with another. Since
+ * both bodies of a pair are written to, each thread sums into its own set of
+ * accelerations, and these are added together at the end.
+ */
+
+package spacesim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class SymmetricSolver implements ForceSolver, Parallel.RangeTask {
+    private static final int TILE = 256;
+    
+    // The force evaluation being worked on
+    private int n, tiles;
+    private ForceLaw forceLaw;
+    private double[] m, x, y, z;
+    private int epoch = 0;
+    
+    // Every thread's accelerations that might hold part of the answer
+    private final ArrayList<Accumulator> accumulators = new ArrayList<>();
+    private final ThreadLocal<Accumulator> local = new ThreadLocal<Accumulator>() {
+        @Override
+        protected Accumulator initialValue() {
+            return new Accumulator();
+        }
+    };
+    
+    /**
+     * One thread's share of the accelerations
+     */
+    private class Accumulator {
+        double[] ax = new double[0], ay = new double[0], az = new double[0];
+        int epoch = -1;
+        boolean registered = false;
+        
+        /**
+         * Get ready to sum into this for the current force evaluation
+         */
+        void begin() {
+            if (epoch == SymmetricSolver.this.epoch) {
+                return;
+            }
+            epoch = SymmetricSolver.this.epoch;
+            if (ax.length < n) {
+                ax = new double[n];
+                ay = new double[n];
+                az = new double[n];
+            } else {
+                Arrays.fill(ax, 0, n, 0);
+                Arrays.fill(ay, 0, n, 0);
+                Arrays.fill(az, 0, n, 0);
+            }
+            if (!registered) {
+                synchronized (accumulators) {
+                    accumulators.add(this);
+                    registered = true;
+                }
+            }
+        }
+    }
+    
+    @Override
+    public void accelerations(BodyStore bodies, ForceLaw forceLaw, double[] x, double[] y, double[] z,
+            double[] ax, double[] ay, double[] az) {
+        this.n = bodies.size;
+        this.forceLaw = forceLaw;
+        this.m = bodies.mass;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.tiles = (n + TILE - 1)/TILE;
+        epoch++;
+        
+        // Tile row u has more pairs to do than tile row tiles-1-u, so they are
+        // handed out together to keep the threads evenly loaded
+        Parallel.forRange((tiles + 1)/2, 1, this);
+        
+        Arrays.fill(ax, 0, n, 0);
+        Arrays.fill(ay, 0, n, 0);
+        Arrays.fill(az, 0, n, 0);
+        synchronized (accumulators) {
+            for (int k = accumulators.size()-1; k >= 0; k--) {
+                Accumulator acc = accumulators.get(k);
+                if (acc.epoch != epoch) {
+                    // The thread had nothing to do, or is gone
+                    acc.registered = false;
+                    accumulators.remove(k);
+                    continue;
+                }
+                for (int i = 0; i < n; i++) {
+                    ax[i] += acc.ax[i];
+                    ay[i] += acc.ay[i];
+                    az[i] += acc.az[i];
+                }
+            }
+        }
+    }
+    
+    @Override
+    public void run(int from, int to) {
+        Accumulator acc = local.get();
+        acc.begin();
+        for (int u = from; u < to; u++) {
+            tileRow(u, acc);
+            if (tiles-1-u != u) {
+                tileRow(tiles-1-u, acc);
+            }
+        }
+    }
+    
+    /**
+     * Every pair between tile I and the tiles after it, and within tile I
+     */
+    private void tileRow(int tileI, Accumulator acc) {
+        for (int tileJ = tileI; tileJ < tiles; tileJ++) {
+            tile(tileI, tileJ, acc);
+        }
+    }
+    
+    private void tile(int tileI, int tileJ, Accumulator acc) {
+        double[] m = this.m, x = this.x, y = this.y, z = this.z;
+        double[] ax = acc.ax, ay = acc.ay, az = acc.az;
+        ForceLaw forceLaw = this.forceLaw;
+        int iEnd = Math.min(n, (tileI+1)*TILE);
+        int jEnd = Math.min(n, (tileJ+1)*TILE);
+        
+        for (int i = tileI*TILE; i < iEnd; i++) {
+            double xi = x[i], yi = y[i], zi = z[i], mi = m[i];
+            double sx = 0, sy = 0, sz = 0;
+            for (int j = tileI == tileJ ? i+1 : tileJ*TILE; j < jEnd; j++) {
+                double dx = x[j] - xi;
+                double dy = y[j] - yi;
+                double dz = z[j] - zi;
+                double dsq = dx*dx + dy*dy + dz*dz;
+                if (dsq > 0.0000001) {
+                    double f = SimulationEngine.GRAV_CONST*forceLaw.scale(dsq);
+                    double fi = f*m[j], fj = f*mi;
+                    sx += fi*dx;
+                    sy += fi*dy;
+                    sz += fi*dz;
+                    ax[j] -= fj*dx;
+                    ay[j] -= fj*dy;
+                    az[j] -= fj*dz;
+                }
+            }
+            ax[i] += sx;
+            ay[i] += sy;
+            az[i] += sz;
+        }
+    }
+}
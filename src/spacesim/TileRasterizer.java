@@ -0,0 +1,214 @@
+/**
+ * Draws circles into an image without Java2D, splitting the image into square
+ * tiles that are drawn at the same time on different threads. The circles are
+ * first sorted into the tiles they touch, keeping the order they were added
+ * in, then each tile fills in its own pixels: the background, or a picture to
+ * draw over, then the circles from the back to the front.
+ * Tiles never share a pixel, so no locking is needed, and each tile's pixels
+ * come out the same however the tiles are split across the threads.
+ *
+ * A frame is begun, has its circles added, and is then finished,
+ * which draws it and copies it onto a graphics. Nothing is allocated once the
+ * buffers have grown to fit.
+ */
+
+package spacesim;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+public class TileRasterizer {
+    // How many pixels across a tile is
+    private static final int TILE = 64;
+
+    private BufferedImage image;
+    private int[] pixels;
+    private int width, height, tilesX, tilesY;
+    private int background;
+    private int[] base;
+
+    // The circles, in the order they were added, as the corner and size of
+    // the box around each
+    private int circleCount;
+    private int[] circleX = new int[0], circleY = new int[0], circleSize = new int[0];
+    private int[] circleRGB = new int[0];
+
+    // Which circles touch each tile, as one list per tile. The tile's entries
+    // run from its start to the next tile's start
+    private int[] circleStart = new int[1], circleEntries = new int[0];
+
+    private final Parallel.RangeTask drawTiles = new Parallel.RangeTask() {
+        @Override
+        public void run(int from, int to) {
+            for (int t = from; t < to; t++) {
+                drawTile(t);
+            }
+        }
+    };
+
+    /**
+     * Start a new frame
+     * @param width Width of the image
+     * @param height Height of the image
+     * @param background The color the image is cleared to, as RGB
+     * @param base Pixels to start from instead of the background, as RGB
+     * rows of the same size as the image. Can be null
+     */
+    public void begin(int width, int height, int background, int[] base) {
+        if (image == null || image.getWidth() != width || image.getHeight() != height) {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        }
+        this.width = width;
+        this.height = height;
+        this.background = background;
+        this.base = base;
+        tilesX = (width + TILE - 1)/TILE;
+        tilesY = (height + TILE - 1)/TILE;
+        circleCount = 0;
+    }
+
+    /**
+     * Add a filled circle, over every circle added before it. Circles less
+     * than two pixels across are drawn as the one pixel at their centre
+     * @param x Left of the box around it
+     * @param y Top of the box around it
+     * @param size Width and height of the box
+     */
+    public void addCircle(int x, int y, int size, int rgb) {
+        if (circleCount == circleX.length) {
+            int capacity = Math.max(64, 2*circleCount);
+            circleX = Arrays.copyOf(circleX, capacity);
+            circleY = Arrays.copyOf(circleY, capacity);
+            circleSize = Arrays.copyOf(circleSize, capacity);
+            circleRGB = Arrays.copyOf(circleRGB, capacity);
+        }
+        circleX[circleCount] = x;
+        circleY[circleCount] = y;
+        circleSize[circleCount] = size;
+        circleRGB[circleCount] = rgb;
+        circleCount++;
+    }
+
+    /**
+     * Draw every circle that was added, and copy it onto a graphics
+     */
+    public void finish(Graphics g) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        binCircles();
+        Parallel.forRange(tilesX*tilesY, 1, drawTiles);
+        g.drawImage(image, 0, 0, null);
+    }
+
+    /**
+     * Sort the circles into the tiles their boxes touch
+     */
+    private void binCircles() {
+        int tiles = tilesX*tilesY;
+        if (circleStart.length < tiles+1) {
+            circleStart = new int[tiles+1];
+        }
+        Arrays.fill(circleStart, 0, tiles+1, 0);
+
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < circleCount; i++) {
+                int x = circleX[i], y = circleY[i], size = circleSize[i];
+                int tx0, tx1, ty0, ty1;
+                if (size < 2) {
+                    tx0 = tx1 = tileX(x + size/2);
+                    ty0 = ty1 = tileY(y + size/2);
+                } else {
+                    tx0 = tileX(x);
+                    tx1 = tileX(x + size);
+                    ty0 = tileY(y);
+                    ty1 = tileY(y + size);
+                }
+                for (int ty = ty0; ty <= ty1; ty++) {
+                    for (int tx = tx0; tx <= tx1; tx++) {
+                        int t = ty*tilesX + tx;
+                        if (pass == 0) {
+                            circleStart[t+1]++;
+                        } else {
+                            circleEntries[circleStart[t]++] = i;
+                        }
+                    }
+                }
+            }
+            if (pass == 0) {
+                for (int t = 0; t < tiles; t++) {
+                    circleStart[t+1] += circleStart[t];
+                }
+                if (circleEntries.length < circleStart[tiles]) {
+                    circleEntries = new int[Math.max(circleStart[tiles], 2*circleEntries.length)];
+                }
+            }
+        }
+        System.arraycopy(circleStart, 0, circleStart, 1, tiles);
+        circleStart[0] = 0;
+    }
+
+    /**
+     * @return The column of tiles a pixel is in, kept inside the image
+     */
+    private int tileX(int x) {
+        return Math.max(0, Math.min(tilesX-1, x/TILE));
+    }
+
+    private int tileY(int y) {
+        return Math.max(0, Math.min(tilesY-1, y/TILE));
+    }
+
+    private void drawTile(int t) {
+        int x0 = (t % tilesX)*TILE, y0 = (t/tilesX)*TILE;
+        int x1 = Math.min(width, x0 + TILE), y1 = Math.min(height, y0 + TILE);
+        for (int y = y0; y < y1; y++) {
+            if (base != null) {
+                System.arraycopy(base, y*width + x0, pixels, y*width + x0, x1 - x0);
+            } else {
+                Arrays.fill(pixels, y*width + x0, y*width + x1, background);
+            }
+        }
+        for (int k = circleStart[t]; k < circleStart[t+1]; k++) {
+            int i = circleEntries[k];
+            drawCircle(circleX[i], circleY[i], circleSize[i], circleRGB[i], x0, y0, x1, y1);
+        }
+    }
+
+    /**
+     * Fill the part of a circle inside [x0, x1) by [y0, y1). A pixel is filled
+     * if its centre is inside the circle
+     */
+    private void drawCircle(int x, int y, int size, int rgb, int x0, int y0, int x1, int y1) {
+        if (size < 2) {
+            plot(x + size/2, y + size/2, rgb, x0, y0, x1, y1);
+            return;
+        }
+        double r = size/2.0;
+        double cx = x + r, cy = y + r;
+        int from = Math.max(y, y0), to = Math.min(y + size, y1);
+        for (int py = from; py < to; py++) {
+            double dy = py + 0.5 - cy;
+            double halfWidth2 = r*r - dy*dy;
+            if (halfWidth2 < 0) {
+                continue;
+            }
+            double halfWidth = Math.sqrt(halfWidth2);
+            int left = Math.max(x0, (int) Math.ceil(cx - halfWidth - 0.5));
+            int right = Math.min(x1-1, (int) Math.floor(cx + halfWidth - 0.5));
+            if (left <= right) {
+                int row = py*width;
+                Arrays.fill(pixels, row + left, row + right + 1, rgb);
+            }
+        }
+    }
+
+    private void plot(int x, int y, int rgb, int x0, int y0, int x1, int y1) {
+        if (x >= x0 && x < x1 && y >= y0 && y < y1) {
+            pixels[y*width + x] = rgb;
+        }
+    }
+}
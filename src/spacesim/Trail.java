@@ -0,0 +1,366 @@
+/**
+ * The recent path of a body, kept in a fixed-size ring of float positions.
+ * Adding a point overwrites the oldest one once the ring is full, so it never
+ * allocates or copies.
+ *
+ * Points are added by the physics thread while the GUI reads them. Instead of
+ * locking, a reader copies out the points, then checks how many were added in
+ * the meantime, and throws away any it copied that may have been written over.
+ *
+ * A trail can also be kept simplified, for drawing as lines. A new position
+ * then only becomes a point of its own where the path bends away from a
+ * straight line by more than a tolerance, and otherwise the newest point is
+ * moved up to it. Straight stretches take a few points and tight bends as
+ * many as they need, and points are dropped by age rather than by count.
+ * When a point is kept while the ring is full of points that have not expired
+ * yet, the ring is swapped for a bigger one, up to a given most, so tight
+ * bends do not cut the trail short. Readers that are part way through the old
+ * ring notice and read again. Once the trail is cleared it goes back to its
+ * first size.
+ */
+
+package spacesim;
+
+public class Trail {
+    // The most positions that can be left out between two points kept, so
+    // that checking a new one stays quick
+    private static final int MAX_DROPPED = 32;
+    
+    /**
+     * The positions and times of the points, each point in the slot of its
+     * number modulo the capacity. A ring is only written to while it is the
+     * trail's current one
+     */
+    private static class Ring {
+        final float[] x, y, z;
+        final long[] time;
+        
+        Ring(int capacity) {
+            x = new float[capacity];
+            y = new float[capacity];
+            z = new float[capacity];
+            time = new long[capacity];
+        }
+    }
+    
+    private final int firstCapacity, maxCapacity;
+    private volatile Ring ring;
+    
+    // How many points have ever been added, how many there were when the
+    // trail was last cleared, and the number of the oldest that has not
+    // expired
+    private volatile long count = 0;
+    private volatile long clearedAt = 0;
+    private volatile long expiredTo = 0;
+    
+    // Goes up by one before and after the newest point is moved, so that a
+    // reader can tell if it moved while being copied
+    private volatile int moves = 0;
+    
+    // Where the positions left out since the last point kept were, on the
+    // screen plane. Only the thread adding points uses these
+    private final float[] droppedU = new float[MAX_DROPPED];
+    private final float[] droppedV = new float[MAX_DROPPED];
+    private int dropped = 0;
+    
+    /**
+     * @param capacity How many of the most recent points to keep
+     */
+    public Trail(int capacity) {
+        this(capacity, capacity);
+    }
+    
+    /**
+     * @param capacity How many of the most recent points to keep at first
+     * @param maxCapacity How many a simplified trail can grow to hold
+     */
+    public Trail(int capacity, int maxCapacity) {
+        firstCapacity = capacity;
+        this.maxCapacity = Math.max(capacity, maxCapacity);
+        ring = new Ring(capacity);
+    }
+    
+    /**
+     * @return How many points the trail can hold right now
+     */
+    public int capacity() {
+        return ring.x.length;
+    }
+    
+    /**
+     * @return The most points the trail can ever hold, which is how long the
+     * arrays given to read and readFrom have to be
+     */
+    public int maxCapacity() {
+        return maxCapacity;
+    }
+    
+    /**
+     * Add a point, writing over the oldest one if the trail is full. Only one
+     * thread may add points
+     */
+    public void add(double x, double y, double z) {
+        add(x, y, z, 0);
+    }
+    
+    /**
+     * @param time When the body was there, for expire
+     */
+    public void add(double x, double y, double z, long time) {
+        long c = count;
+        Ring r = ring;
+        if (c == clearedAt && r.x.length != firstCapacity) {
+            // Give back what a tight bend grew the trail to
+            r = new Ring(firstCapacity);
+            ring = r;
+        }
+        int slot = (int) (c % r.x.length);
+        r.x[slot] = (float) x;
+        r.y[slot] = (float) y;
+        r.z[slot] = (float) z;
+        r.time[slot] = time;
+        count = c+1;
+    }
+    
+    /**
+     * Keep a point, first growing the ring if it is full of points that have
+     * not expired and there is room to grow
+     */
+    private void keep(double x, double y, double z, long time) {
+        long c = count;
+        Ring r = ring;
+        int capacity = r.x.length;
+        if (capacity < maxCapacity && c - capacity >= Math.max(expiredTo, clearedAt)) {
+            Ring grown = new Ring(Math.min(maxCapacity, 2*capacity));
+            int newCapacity = grown.x.length;
+            for (long p = c - capacity; p < c; p++) {
+                int from = (int) (p % capacity), to = (int) (p % newCapacity);
+                grown.x[to] = r.x[from];
+                grown.y[to] = r.y[from];
+                grown.z[to] = r.z[from];
+                grown.time[to] = r.time[from];
+            }
+            ring = grown;
+        }
+        add(x, y, z, time);
+    }
+    
+    /**
+     * Add a position to a simplified trail. If the line from the last point
+     * kept to the new position passes within the tolerance of the newest point
+     * and of every position left out since, the newest point is moved there
+     * instead of a new one being added. Only one thread may add points
+     * @param time When the body was there, for expire
+     * @param tolerance How far the line may pass from where the body was, in
+     * units of the screen plane as in Projection
+     */
+    public void addSimplified(double x, double y, double z, long time, double tolerance) {
+        long c = count;
+        if (c - clearedAt < 2 || dropped == MAX_DROPPED) {
+            dropped = 0;
+            keep(x, y, z, time);
+            return;
+        }
+        
+        Ring r = ring;
+        int capacity = r.x.length;
+        int last = (int) ((c-1) % capacity), kept = (int) ((c-2) % capacity);
+        double au = Projection.planeX(r.x[kept]), av = Projection.planeY(r.y[kept], r.z[kept]);
+        double bu = Projection.planeX(r.x[last]), bv = Projection.planeY(r.y[last], r.z[last]);
+        double cu = Projection.planeX(x), cv = Projection.planeY(y, z);
+        double tolerance2 = tolerance*tolerance;
+        boolean straight = distance2(bu, bv, au, av, cu, cv) <= tolerance2;
+        for (int i = 0; i < dropped && straight; i++) {
+            straight = distance2(droppedU[i], droppedV[i], au, av, cu, cv) <= tolerance2;
+        }
+        if (!straight) {
+            dropped = 0;
+            keep(x, y, z, time);
+            return;
+        }
+        
+        droppedU[dropped] = (float) bu;
+        droppedV[dropped] = (float) bv;
+        dropped++;
+        moves++;
+        r.x[last] = (float) x;
+        r.y[last] = (float) y;
+        r.z[last] = (float) z;
+        r.time[last] = time;
+        moves++;
+    }
+    
+    /**
+     * Drop the points from before a given time, all but the last of them, so
+     * that the trail still reaches back that far. Only the thread adding
+     * points may call this
+     */
+    public void expire(long before) {
+        Ring r = ring;
+        int capacity = r.x.length;
+        long c = count;
+        long e = Math.max(expiredTo, c - capacity);
+        while (e + 1 < c && r.time[(int) ((e+1) % capacity)] < before) {
+            e++;
+        }
+        expiredTo = e;
+    }
+    
+    /**
+     * Forget every point. Can be called from any thread
+     */
+    public void clear() {
+        clearedAt = count;
+    }
+    
+    /**
+     * @return The number of the oldest point there is, counting every point
+     * ever added
+     */
+    public long getStart() {
+        return Math.max(Math.max(count - capacity(), clearedAt), Math.max(expiredTo, 0));
+    }
+    
+    /**
+     * @return How many points there are now. More may be added at any time
+     */
+    public int size() {
+        return (int) Math.max(0, count - getStart());
+    }
+    
+    /**
+     * Copy out the points from a given one on, oldest first. Can be called
+     * from any thread while points are being added. Points that have expired
+     * can still be copied until they are written over
+     * @param from The number of the first point wanted, counting every point
+     * ever added
+     * @param outX Where the x coordinates go, at least maxCapacity() long
+     * @param outY Where the y coordinates go, at least maxCapacity() long
+     * @param outZ Where the z coordinates go, at least maxCapacity() long
+     * @return The number just past the last point copied, so that this minus
+     * from were copied, or -1 if any of the points wanted have been cleared or
+     * written over
+     */
+    public long readFrom(long from, float[] outX, float[] outY, float[] outZ) {
+        while (true) {
+            Ring r = ring;
+            int capacity = r.x.length;
+            int m = moves;
+            long end = count;
+            if (from < clearedAt || from < end - capacity) {
+                return -1;
+            }
+            if (from >= end) {
+                return from;
+            }
+            int n = (int) (end - from);
+            for (int i = 0; i < n; i++) {
+                int slot = (int) ((from + i) % capacity);
+                outX[i] = r.x[slot];
+                outY[i] = r.y[slot];
+                outZ[i] = r.z[slot];
+            }
+            
+            // The ring may have been swapped for another while copying
+            if (ring != r) {
+                continue;
+            }
+            // the oldest may have been written over or cleared
+            if (count + 1 - capacity > from || clearedAt > from) {
+                return -1;
+            }
+            // and the newest may have been moved, so it is left for next time
+            if (moves != m || (m & 1) != 0) {
+                return end - 1;
+            }
+            return end;
+        }
+    }
+    
+    /**
+     * Copy the points out, oldest first. Can be called from any thread while
+     * points are being added
+     * @param outX Where the x coordinates go, at least maxCapacity() long
+     * @param outY Where the y coordinates go, at least maxCapacity() long
+     * @param outZ Where the z coordinates go, at least maxCapacity() long
+     * @return How many points were copied
+     */
+    public int read(float[] outX, float[] outY, float[] outZ) {
+        return read(outX, outY, outZ, 0);
+    }
+    
+    /**
+     * Copy the points out, oldest first, from a given place in the arrays on
+     * @param offset Where in the arrays the oldest point goes, with room for
+     * maxCapacity() points from there
+     * @return How many points were copied
+     */
+    public int read(float[] outX, float[] outY, float[] outZ, int offset) {
+        return read(outX, outY, outZ, offset, maxCapacity);
+    }
+    
+    /**
+     * Copy out at most a given number of the newest points, oldest first
+     * @param offset Where in the arrays the oldest point goes
+     * @param max The most points to copy, which there must be room for from
+     * offset on
+     * @return How many points were copied
+     */
+    public int read(float[] outX, float[] outY, float[] outZ, int offset, int max) {
+        while (true) {
+            Ring r = ring;
+            int capacity = r.x.length;
+            int m = moves;
+            long end = count;
+            long start = Math.max(Math.max(end - capacity, clearedAt), Math.max(expiredTo, 0));
+            start = Math.max(start, end - max);
+            if (start >= end) {
+                return 0;
+            }
+            int n = (int) (end - start);
+            for (int i = 0; i < n; i++) {
+                int slot = (int) ((start + i) % capacity);
+                outX[offset + i] = r.x[slot];
+                outY[offset + i] = r.y[slot];
+                outZ[offset + i] = r.z[slot];
+            }
+            
+            // The ring may have been swapped for another while copying
+            if (ring != r) {
+                continue;
+            }
+            
+            // The newest may have been moved while it was copied
+            if (moves != m || (m & 1) != 0) {
+                n--;
+            }
+            
+            // Anything older than the point being written when we finished may
+            // have changed under us
+            long safeStart = count + 1 - capacity;
+            if (safeStart > start) {
+                int drop = (int) Math.min(n, safeStart - start);
+                n -= drop;
+                System.arraycopy(outX, offset + drop, outX, offset, n);
+                System.arraycopy(outY, offset + drop, outY, offset, n);
+                System.arraycopy(outZ, offset + drop, outZ, offset, n);
+            }
+            return n;
+        }
+    }
+    
+    /**
+     * @return The square of how far a point is from the line between two
+     * others
+     */
+    private static double distance2(double pu, double pv, double au, double av, double cu, double cv) {
+        double du = cu - au, dv = cv - av;
+        double length2 = du*du + dv*dv;
+        double t = 0;
+        if (length2 > 0) {
+            t = Math.max(0, Math.min(1, ((pu - au)*du + (pv - av)*dv)/length2));
+        }
+        double eu = au + t*du - pu, ev = av + t*dv - pv;
+        return eu*eu + ev*ev;
+    }
+}
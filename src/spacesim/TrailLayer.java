@@ -0,0 +1,190 @@
+/**
+ * The background with every trail drawn on it as lines, kept from one frame to
+ * the next. Each frame only the points added to the trails since the last one
+ * are drawn on, so the cost goes with how many points are new rather than how
+ * long the trails are. It is drawn again from scratch when the view, the size
+ * or the bodies change, or when a trail is cleared.
+ *
+ * The newest point of a trail can move, as the trail is simplified, so the
+ * line to it is drawn again each frame. The line it moved from is within the
+ * trail's tolerance of the new one, so what it leaves behind does not show.
+ *
+ * Points that fall off the end of a trail cannot be rubbed out, so they stay
+ * until the layer is redrawn, which happens once the clock has gone a
+ * quarter of the length of a trail since then. Trails are shown a little
+ * longer than they are between redraws.
+ */
+
+package spacesim;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+public class TrailLayer {
+    // How far the clock can go before the layer is redrawn, in milliseconds
+    private static final long SLACK = SimulationEngine.LINE_TRAIL_MILLIS/4;
+
+    private BufferedImage image;
+    private int[] pixels;
+    private boolean valid = false;
+
+    // The view and bodies the layer was drawn for, and where the points go
+    // on the screen
+    private int width, height, background;
+    private double zoom;
+    private int dWindowX, dWindowY;
+    private Projection projection;
+    private int size;
+    private Body[] bodies = new Body[0];
+    private long drawnClock;
+
+    // For each row, the number of the first point drawn and the number just
+    // past the last one, counting every point added to its trail
+    private long[] drawnFrom = new long[0], drawnTo = new long[0];
+
+    private final float[] trailX = new float[SimulationEngine.LINE_TRAIL_POINTS];
+    private final float[] trailY = new float[SimulationEngine.LINE_TRAIL_POINTS];
+    private final float[] trailZ = new float[SimulationEngine.LINE_TRAIL_POINTS];
+
+    /**
+     * Have the layer drawn from scratch next time, as when the trails stop
+     * being drawn as lines
+     */
+    public void invalidate() {
+        valid = false;
+    }
+
+    /**
+     * Draw the new points of every trail on the layer, or draw it all again if
+     * anything else has changed
+     * @param world The trails to draw
+     * @param projection The view to draw them in
+     * @param background The color behind the trails, as RGB
+     * @return The layer
+     */
+    public BufferedImage update(WorldSnapshot world, Projection projection, int background) {
+        this.projection = projection;
+        if (!valid || image == null || projection.getWidth() != width
+                || projection.getHeight() != height || projection.getZoom() != zoom
+                || projection.getDWindowX() != dWindowX || projection.getDWindowY() != dWindowY
+                || background != this.background || world.clock - drawnClock > SLACK
+                || world.clock < drawnClock || !sameBodies(world)) {
+            redraw(world, background);
+        }
+
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.BLUE);
+        boolean stale = false;
+        for (int j = 0; j < size; j++) {
+            if (!drawNewPoints(g, world.bodies[j].trail, j)) {
+                stale = true;
+                break;
+            }
+        }
+        g.dispose();
+
+        if (stale) {
+            redraw(world, background);
+            g = image.createGraphics();
+            g.setColor(Color.BLUE);
+            for (int j = 0; j < size; j++) {
+                Trail trail = world.bodies[j].trail;
+                if (!drawNewPoints(g, trail, j)) {
+                    // The oldest point was written over while it was being
+                    // read, so leave it out
+                    drawnFrom[j] = drawnTo[j] = trail.getStart() + 1;
+                    drawNewPoints(g, trail, j);
+                }
+            }
+            g.dispose();
+        }
+        this.projection = null;
+        return image;
+    }
+
+    /**
+     * @return The pixels of the layer, as RGB
+     */
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    private boolean sameBodies(WorldSnapshot world) {
+        if (world.size != size) {
+            return false;
+        }
+        for (int j = 0; j < size; j++) {
+            if (world.bodies[j] != bodies[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Clear the layer for a new view, with no trails drawn on it
+     */
+    private void redraw(WorldSnapshot world, int background) {
+        int width = projection.getWidth(), height = projection.getHeight();
+        if (image == null || image.getWidth() != width || image.getHeight() != height) {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        }
+        Arrays.fill(pixels, background);
+
+        this.width = width;
+        this.height = height;
+        zoom = projection.getZoom();
+        dWindowX = projection.getDWindowX();
+        dWindowY = projection.getDWindowY();
+        this.background = background;
+        size = world.size;
+        if (bodies.length < size) {
+            int capacity = Math.max(size, 2*bodies.length);
+            bodies = new Body[capacity];
+            drawnFrom = new long[capacity];
+            drawnTo = new long[capacity];
+        }
+        System.arraycopy(world.bodies, 0, bodies, 0, size);
+        Arrays.fill(bodies, size, bodies.length, null);
+        drawnClock = world.clock;
+        for (int j = 0; j < size; j++) {
+            drawnFrom[j] = drawnTo[j] = bodies[j].trail.getStart();
+        }
+        valid = true;
+    }
+
+    /**
+     * Draw the lines to the points added to a trail since it was last drawn
+     * @return False if some of the trail since it was last drawn has been
+     * cleared or written over, so the layer has to be drawn again
+     */
+    private boolean drawNewPoints(Graphics2D g, Trail trail, int row) {
+        // Start from the last point but one drawn, as the last may have moved
+        long from = Math.max(drawnFrom[row], drawnTo[row] - 2);
+        long end = trail.readFrom(from, trailX, trailY, trailZ);
+        if (end < 0) {
+            return false;
+        }
+
+        int n = (int) (end - from);
+        int x1 = 0, y1 = 0;
+        for (int i = 0; i < n; i++) {
+            int x2 = (int) projection.screenX(trailX[i]);
+            int y2 = (int) projection.screenY(trailY[i], trailZ[i]);
+
+            // Skip lines that are wholly to one side of the view
+            if (i > 0 && !(x1 < 0 && x2 < 0) && !(x1 >= width && x2 >= width)
+                    && !(y1 < 0 && y2 < 0) && !(y1 >= height && y2 >= height)) {
+                g.drawLine(x1, y1, x2, y2);
+            }
+            x1 = x2;
+            y1 = y2;
+        }
+        drawnTo[row] = end;
+        return true;
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * Velocity Verlet. The positions move with the current velocity and
+ * acceleration, then the velocities move with the average of the old and new
+ * accelerations. Like leapfrog it is symplectic and needs one force
+ * evaluation per step
+ */
+
+package spacesim;
+
+import java.util.Arrays;
+
+public class VelocityVerletIntegrator extends Integrator {
+    // Acceleration at the start of the step
+    private double[] oldAx = new double[0], oldAy = new double[0], oldAz = new double[0];
+    
+    @Override
+    public String getName() {
+        return "Velocity Verlet";
+    }
+    
+    @Override
+    public void step(BodyStore bodies, ForceSolver solver, ForceLaw forceLaw, double dt) {
+        int n = bodies.size;
+        ensureCapacity(n);
+        double[] x = bodies.x, y = bodies.y, z = bodies.z;
+        double[] vx = bodies.vx, vy = bodies.vy, vz = bodies.vz;
+        boolean[] moveable = bodies.moveable;
+        double halfDtSq = dt*dt*0.5;
+        
+        currentAccelerations(bodies, solver, forceLaw);
+        for (int i = 0; i < n; i++) {
+            if (moveable[i]) {
+                x[i] += vx[i]*dt + ax[i]*halfDtSq;
+                y[i] += vy[i]*dt + ay[i]*halfDtSq;
+                z[i] += vz[i]*dt + az[i]*halfDtSq;
+            }
+        }
+        System.arraycopy(ax, 0, oldAx, 0, n);
+        System.arraycopy(ay, 0, oldAy, 0, n);
+        System.arraycopy(az, 0, oldAz, 0, n);
+        
+        solver.accelerations(bodies, forceLaw, x, y, z, ax, ay, az);
+        for (int i = 0; i < n; i++) {
+            if (moveable[i]) {
+                vx[i] += (oldAx[i] + ax[i])*dt*0.5;
+                vy[i] += (oldAy[i] + ay[i])*dt*0.5;
+                vz[i] += (oldAz[i] + az[i])*dt*0.5;
+            }
+        }
+        moved(bodies);
+        rememberAccelerations(bodies, solver, forceLaw);
+    }
+    
+    @Override
+    protected void ensureCapacity(int n) {
+        super.ensureCapacity(n);
+        if (oldAx.length < n) {
+            int capacity = ax.length;
+            oldAx = Arrays.copyOf(oldAx, capacity);
+            oldAy = Arrays.copyOf(oldAy, capacity);
+            oldAz = Arrays.copyOf(oldAz, capacity);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * A copy of the simulation as it was after one step, for the GUI to draw and
+ * show in the editor while the physics carries on with the next step. The
+ * engine keeps a few of these and fills them in turn, so once one has been
+ * handed to the GUI it does not change until the GUI asks for a newer one.
+ */
+
+package spacesim;
+
+import java.util.Arrays;
+
+public class WorldSnapshot {
+    // Goes up by one every time a snapshot is published
+    public long epoch = -1;
+    
+    public long steps, clock;
+    public double time;
+    
+    // The state of each body, one row per body as in the store
+    public int size;
+    public double[] x = new double[0], y = new double[0], z = new double[0];
+    public double[] vx = new double[0], vy = new double[0], vz = new double[0];
+    public double[] mass = new double[0], radius = new double[0];
+    public String[] color = new String[0];
+    public Body[] bodies = new Body[0];
+    
+    /**
+     * @param b A body
+     * @return Its row in this snapshot, or -1 if it was not in the simulation
+     */
+    public int indexOf(Body b) {
+        for (int i = 0; i < size; i++) {
+            if (bodies[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Copy the current state of the engine into this snapshot
+     */
+    void copy(SimulationEngine engine, long epoch) {
+        BodyStore store = engine.getBodies();
+        int n = store.size;
+        ensureCapacity(n);
+        this.epoch = epoch;
+        steps = engine.getSteps();
+        clock = engine.getClock();
+        time = engine.getTime();
+        size = n;
+        System.arraycopy(store.x, 0, x, 0, n);
+        System.arraycopy(store.y, 0, y, 0, n);
+        System.arraycopy(store.z, 0, z, 0, n);
+        System.arraycopy(store.vx, 0, vx, 0, n);
+        System.arraycopy(store.vy, 0, vy, 0, n);
+        System.arraycopy(store.vz, 0, vz, 0, n);
+        System.arraycopy(store.mass, 0, mass, 0, n);
+        System.arraycopy(store.radius, 0, radius, 0, n);
+        System.arraycopy(store.bodies, 0, bodies, 0, n);
+        Arrays.fill(bodies, n, bodies.length, null);
+        for (int i = 0; i < n; i++) {
+            color[i] = bodies[i].color;
+        }
+    }
+    
+    private void ensureCapacity(int n) {
+        if (x.length < n) {
+            int capacity = Math.max(n, 2*x.length);
+            x = new double[capacity];
+            y = new double[capacity];
+            z = new double[capacity];
+            vx = new double[capacity];
+            vy = new double[capacity];
+            vz = new double[capacity];
+            mass = new double[capacity];
+            radius = new double[capacity];
+            color = new String[capacity];
+            bodies = new Body[capacity];
+        }
+    }
+}
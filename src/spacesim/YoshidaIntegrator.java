@@ -0,0 +1,55 @@
+/**
+ * Yoshida's fourth order symplectic integrator. It is three leapfrog steps of
+ * carefully chosen sizes, one of them backwards in time, which cancels the
+ * error terms up to fourth order. Costs three force evaluations per step
+ */
+
+package spacesim;
+
+public class YoshidaIntegrator extends Integrator {
+    private static final double CBRT2 = Math.cbrt(2.0);
+    private static final double W1 = 1.0/(2.0 - CBRT2);
+    private static final double W0 = -CBRT2/(2.0 - CBRT2);
+    
+    // Drift and kick coefficients
+    private static final double[] C = {W1/2.0, (W0+W1)/2.0, (W0+W1)/2.0, W1/2.0};
+    private static final double[] D = {W1, W0, W1};
+    
+    @Override
+    public String getName() {
+        return "Yoshida 4";
+    }
+    
+    @Override
+    public void step(BodyStore bodies, ForceSolver solver, ForceLaw forceLaw, double dt) {
+        int n = bodies.size;
+        ensureCapacity(n);
+        double[] x = bodies.x, y = bodies.y, z = bodies.z;
+        double[] vx = bodies.vx, vy = bodies.vy, vz = bodies.vz;
+        boolean[] moveable = bodies.moveable;
+        
+        for (int k = 0; k < 4; k++) {
+            double c = C[k]*dt;
+            for (int i = 0; i < n; i++) {
+                if (moveable[i]) {
+                    x[i] += vx[i]*c;
+                    y[i] += vy[i]*c;
+                    z[i] += vz[i]*c;
+                }
+            }
+            
+            if (k < 3) {
+                double d = D[k]*dt;
+                solver.accelerations(bodies, forceLaw, x, y, z, ax, ay, az);
+                for (int i = 0; i < n; i++) {
+                    if (moveable[i]) {
+                        vx[i] += ax[i]*d;
+                        vy[i] += ay[i]*d;
+                        vz[i] += az[i]*d;
+                    }
+                }
+            }
+        }
+        moved(bodies);
+    }
+}
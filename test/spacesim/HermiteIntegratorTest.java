@@ -0,0 +1,98 @@
+/**
+ * Checks that the Hermite integrator starts over whenever the bodies were
+ * changed by anything but its own last step, so that it never carries on from
+ * accelerations and jerks that no longer match the positions and velocities.
+ */
+
+package spacesim;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class HermiteIntegratorTest {
+    private static final double DT = 0.05;
+    private static final int STEPS = 10;
+
+    private final ForceSolver solver = new DirectSolver();
+    private final ForceLaw forceLaw = ForceLaw.INVERSE_SQUARE;
+
+    /**
+     * A sun with planets on rough orbits around it
+     */
+    private static BodyStore system() {
+        BodyStore bodies = new BodyStore();
+        bodies.add(new Body("Sun", 10000, 1, 0, 0, 0, 0, 0, 0));
+        for (int i = 0; i < 20; i++) {
+            double angle = 0.7*i, r = 50 + 5*i;
+            bodies.add(new Body("Planet", 1 + i, 1, r*Math.cos(angle), r*Math.sin(angle), i % 3,
+                    -3*Math.sin(angle), 3*Math.cos(angle), 0));
+        }
+        return bodies;
+    }
+
+    private void steps(Integrator integrator, BodyStore bodies, int count) {
+        for (int k = 0; k < count; k++) {
+            integrator.step(bodies, solver, forceLaw, DT);
+        }
+    }
+
+    private static void assertSameState(BodyStore expected, BodyStore actual) {
+        assertEquals(expected.size, actual.size);
+        for (int i = 0; i < expected.size; i++) {
+            assertEquals(expected.x[i], actual.x[i], 0);
+            assertEquals(expected.y[i], actual.y[i], 0);
+            assertEquals(expected.z[i], actual.z[i], 0);
+            assertEquals(expected.vx[i], actual.vx[i], 0);
+            assertEquals(expected.vy[i], actual.vy[i], 0);
+            assertEquals(expected.vz[i], actual.vz[i], 0);
+        }
+    }
+
+    @Test
+    public void switchingIntegratorsMidRunStartsOver() {
+        BodyStore switched = system(), fresh = system();
+        HermiteIntegrator hermite = new HermiteIntegrator();
+        steps(hermite, switched, STEPS);
+        steps(new HermiteIntegrator(), fresh, STEPS);
+
+        steps(new RungeKuttaIntegrator(), switched, 1);
+        steps(new RungeKuttaIntegrator(), fresh, 1);
+
+        // Back to the first Hermite, against one that has never stepped
+        steps(hermite, switched, STEPS);
+        steps(new HermiteIntegrator(), fresh, STEPS);
+        assertSameState(fresh, switched);
+    }
+
+    @Test
+    public void changingAVelocityStartsOver() {
+        BodyStore edited = system(), fresh = system();
+        HermiteIntegrator hermite = new HermiteIntegrator();
+        steps(hermite, edited, STEPS);
+        steps(new HermiteIntegrator(), fresh, STEPS);
+
+        edited.bodies[3].setVx(edited.bodies[3].getVx() + 1);
+        fresh.bodies[3].setVx(fresh.bodies[3].getVx() + 1);
+
+        steps(hermite, edited, STEPS);
+        steps(new HermiteIntegrator(), fresh, STEPS);
+        assertSameState(fresh, edited);
+    }
+
+    @Test
+    public void makingABodyMoveableStartsOver() {
+        BodyStore edited = system(), fresh = system();
+        HermiteIntegrator hermite = new HermiteIntegrator();
+        steps(hermite, edited, STEPS);
+        steps(new HermiteIntegrator(), fresh, STEPS);
+
+        // The sun has never had an acceleration, jerk or level worked out
+        edited.bodies[0].setMoveable(true);
+        fresh.bodies[0].setMoveable(true);
+
+        steps(hermite, edited, STEPS);
+        steps(new HermiteIntegrator(), fresh, STEPS);
+        assertSameState(fresh, edited);
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Checks that once it has warmed up, an integrator step of every body does
+ * not allocate anything, so it never gives the garbage collector work. The
+ * bytes allocated are counted by the JVM for each thread.
+ */
+
+package spacesim;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import org.junit.Test;
+
+public class IntegratorTest {
+    private static final int BODIES = 200;
+    private static final int WARM_UP_STEPS = 1000;
+    private static final int STEPS = 100;
+    private static final double DT = 0.001;
+
+    /**
+     * Spread the bodies out on a grid, far enough apart that none of them get
+     * close during the test
+     */
+    private static BodyStore grid() {
+        BodyStore bodies = new BodyStore();
+        for (int i = 0; i < BODIES; i++) {
+            bodies.add(new Body("Planet", 1, 1, 10*(i%10), 10*(i/10%10), 10*(i/100), 0, 0, 0));
+        }
+        return bodies;
+    }
+
+    private static void assertStepDoesNotAllocate(Integrator integrator, ForceSolver solver) {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads
+                = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long id = Thread.currentThread().getId();
+
+        BodyStore bodies = grid();
+
+        // Let the scratch arrays grow and give the JIT time to compile the loops
+        for (int k = 0; k < WARM_UP_STEPS; k++) {
+            integrator.step(bodies, solver, ForceLaw.INVERSE_SQUARE, DT);
+        }
+
+        long before = threads.getThreadAllocatedBytes(id);
+        for (int k = 0; k < STEPS; k++) {
+            integrator.step(bodies, solver, ForceLaw.INVERSE_SQUARE, DT);
+        }
+        long allocated = threads.getThreadAllocatedBytes(id) - before;
+
+        assertEquals("Bytes allocated by " + STEPS + " steps", 0, allocated);
+    }
+
+    @Test
+    public void rungeKuttaStepDoesNotAllocate() {
+        assertStepDoesNotAllocate(new RungeKuttaIntegrator(), new DirectSolver());
+    }
+
+    @Test
+    public void barnesHutStepDoesNotAllocate() {
+        assertStepDoesNotAllocate(new RungeKuttaIntegrator(), new BarnesHutSolver(0.5));
+    }
+
+    @Test
+    public void leapfrogStepDoesNotAllocate() {
+        assertStepDoesNotAllocate(new LeapfrogIntegrator(), new DirectSolver());
+    }
+
+    @Test
+    public void yoshidaStepDoesNotAllocate() {
+        assertStepDoesNotAllocate(new YoshidaIntegrator(), new DirectSolver());
+    }
+}
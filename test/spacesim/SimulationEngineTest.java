@@ -0,0 +1,88 @@
+/**
+ * Checks that once it has warmed up, a step of the simulation does not
+ * allocate anything, so it never gives the garbage collector work. The bytes
+ * allocated are counted by the JVM for each thread.
+ */
+
+package spacesim;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import org.junit.Test;
+
+public class SimulationEngineTest {
+    private static final int BODIES = 200;
+    private static final int WARM_UP_STEPS = 1000;
+    private static final int STEPS = 200;
+
+    /**
+     * A sun with planets on circular orbits at different distances, far
+     * enough apart that none of them collide or leave the cube, since removing
+     * a body allocates
+     */
+    private static void addOrbits(SimulationEngine engine) {
+        BodyStore bodies = engine.getBodies();
+        Body sun = new Body("Sun", 500, .001, 0, 0, 0, 0, 0, 0);
+        sun.setRadiusFromMass();
+        bodies.add(sun);
+        for (int i = 1; i < BODIES; i++) {
+            double r = 1000 + 20*i, angle = 2.4*i;
+            double v = Math.sqrt(SimulationEngine.GRAV_CONST*500/r);
+            Body planet = new Body("Planet", 0.1, 0.0001, r*Math.cos(angle), r*Math.sin(angle), 0,
+                    -v*Math.sin(angle), v*Math.cos(angle), 0);
+            planet.setRadiusFromMass();
+            bodies.add(planet);
+        }
+    }
+
+    /**
+     * @return How many bytes the current thread has allocated so far
+     */
+    private static long allocatedBytes(com.sun.management.ThreadMXBean threads) {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static void assertStepDoesNotAllocate(Integrator integrator, int pathMode) {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads
+                = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        SimulationEngine engine = new SimulationEngine();
+        addOrbits(engine);
+        engine.setIntegrator(integrator);
+        engine.setPathMode(pathMode);
+
+        // Let the scratch arrays grow and give the JIT time to compile the loops
+        for (int k = 0; k < WARM_UP_STEPS; k++) {
+            engine.step();
+        }
+
+        long before = allocatedBytes(threads);
+        for (int k = 0; k < STEPS; k++) {
+            engine.step();
+        }
+        long allocated = allocatedBytes(threads) - before;
+
+        assertEquals("Bodies left", BODIES, engine.getBodies().size);
+        assertEquals("Bytes allocated by " + STEPS + " steps", 0, allocated);
+    }
+
+    @Test
+    public void rungeKuttaStepDoesNotAllocate() {
+        assertStepDoesNotAllocate(new RungeKuttaIntegrator(), SimulationEngine.PATHS_NONE);
+    }
+
+    @Test
+    public void leapfrogStepDoesNotAllocate() {
+        assertStepDoesNotAllocate(new LeapfrogIntegrator(), SimulationEngine.PATHS_NONE);
+    }
+
+    @Test
+    public void stepWithTrailsDoesNotAllocate() {
+        assertStepDoesNotAllocate(new RungeKuttaIntegrator(), SimulationEngine.PATHS_LINES);
+    }
+}